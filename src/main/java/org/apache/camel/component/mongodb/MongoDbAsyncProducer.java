@@ -0,0 +1,522 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+import com.mongodb.WriteResult;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.async.client.AggregateIterable;
+import com.mongodb.async.client.FindIterable;
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.async.client.MongoDatabase;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The non-blocking MongoDb producer, enabled with {@link MongoDbEndpoint#setAsyncDriver(boolean)}.
+ * <p/>
+ * Operations are issued through the callback-based MongoDB async driver and the exchange is completed from the driver's I/O
+ * thread, so no Camel thread is held during the round trip. Write operations return the same {@link WriteResult} as the
+ * blocking producer. Operations without an async counterpart fall back to the blocking implementation.
+ */
+public class MongoDbAsyncProducer extends MongoDbProducer {
+    private static final Logger LOG = LoggerFactory.getLogger(MongoDbAsyncProducer.class);
+    private final MongoDbEndpoint endpoint;
+
+    public MongoDbAsyncProducer(MongoDbEndpoint endpoint) {
+        super(endpoint);
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        // fails fast if the async driver cannot be configured like the blocking connection
+        endpoint.getAsyncMongoConnection();
+    }
+
+    @Override
+    protected boolean doProcess(MongoDbOperation operation, Exchange exchange, AsyncCallback callback) {
+        if (endpoint.isRawBson()) {
+            // raw BSON documents are only supported by the blocking driver's codecs
+            return super.doProcess(operation, exchange, callback);
+        }
+        try {
+            if (invokeAsyncOperation(operation, exchange, callback)) {
+                return false;
+            }
+        } catch (Exception e) {
+            exchange.setException(MongoDbComponent.wrapInCamelMongoDbException(e));
+            callback.done(true);
+            return true;
+        }
+
+        LOG.trace("No async variant available, falling back to the blocking implementation");
+        return super.doProcess(operation, exchange, callback);
+    }
+
+    /**
+     * Issues the operation through the async driver.
+     *
+     * @return true if the operation was issued and the exchange will be completed asynchronously, false if the operation has no
+     *         async variant
+     */
+    protected boolean invokeAsyncOperation(MongoDbOperation operation, Exchange exchange, AsyncCallback callback) throws Exception {
+        switch (operation) {
+        case count:
+            doAsyncCount(exchange, callback);
+            return true;
+        case findOneByQuery:
+            doAsyncFindOneByQuery(exchange, callback);
+            return true;
+        case findById:
+            if (endpoint.getFindByIdBatchWindow() > 0) {
+                // let the lookup batcher coalesce it
+                return false;
+            }
+            doAsyncFindById(exchange, callback);
+            return true;
+        case findAll:
+            if (MongoDbOutputType.DBCursor.equals(endpoint.getOutputType())) {
+                // streamed through a blocking cursor, which is fetched lazily while the route iterates
+                return false;
+            }
+            if (endpoint.getPaginationKey() != null || exchange.getIn().getHeader(MongoDbConstants.PAGINATION_KEY) != null
+                    || endpoint.getParallelScan() > 1) {
+                return false;
+            }
+            doAsyncFindAll(exchange, callback);
+            return true;
+        case insert:
+            if (endpoint.getBatchWindow() > 0 || endpoint.isStreamingInsert()) {
+                // let the insert batcher coalesce it, or stream it in chunks
+                return false;
+            }
+            doAsyncInsert(exchange, callback);
+            return true;
+        case save:
+            doAsyncSave(exchange, callback);
+            return true;
+        case update:
+            doAsyncUpdate(exchange, callback);
+            return true;
+        case remove:
+            doAsyncRemove(exchange, callback);
+            return true;
+        case aggregate:
+            if (MongoDbOutputType.DBCursor.equals(endpoint.getOutputType())) {
+                return false;
+            }
+            doAsyncAggregate(exchange, callback);
+            return true;
+        case getDbStats:
+            doAsyncCommand(exchange, callback, new BasicDBObject("dbStats", 1), MongoDbOperation.getDbStats);
+            return true;
+        case getColStats:
+            doAsyncCommand(exchange, callback, new BasicDBObject("collStats", calculateCollection(exchange).getName()), MongoDbOperation.getColStats);
+            return true;
+        case command:
+            doAsyncCommand(exchange, callback, exchange.getIn().getMandatoryBody(DBObject.class), MongoDbOperation.command);
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    // ----------- MongoDB async operations ----------------
+
+    protected void doAsyncCommand(final Exchange exchange, AsyncCallback callback, DBObject cmdObj, final MongoDbOperation operation) throws Exception {
+        asyncDatabase(exchange).runCommand(toBson(cmdObj), DBObject.class, new ExchangeCallback<DBObject>(exchange, callback) {
+            @Override
+            protected void onSuccess(DBObject result) {
+                prepareResponseMessage(exchange, operation).setBody(result);
+            }
+        });
+    }
+
+    protected void doAsyncCount(final Exchange exchange, AsyncCallback callback) throws Exception {
+        DBObject query = getQueryBody(exchange, false);
+        asyncCollection(exchange).count(query == null ? new BasicDBObject() : toBson(query), new ExchangeCallback<Long>(exchange, callback) {
+            @Override
+            protected void onSuccess(Long result) {
+                prepareResponseMessage(exchange, MongoDbOperation.count).setBody(result);
+            }
+        });
+    }
+
+    protected void doAsyncFindById(final Exchange exchange, AsyncCallback callback) throws Exception {
+        Object id = exchange.getIn().getMandatoryBody();
+        DBObject fieldFilter = getQueryHeader(exchange, MongoDbConstants.FIELDS_FILTER);
+
+        FindIterable<DBObject> find = asyncCollection(exchange).find(new BasicDBObject("_id", id));
+        if (fieldFilter != null) {
+            find.projection(toBson(fieldFilter));
+        }
+        find.first(new SingleDocumentCallback(exchange, callback, MongoDbOperation.findById));
+    }
+
+    protected void doAsyncFindOneByQuery(final Exchange exchange, AsyncCallback callback) throws Exception {
+        DBObject query = getQueryBody(exchange, true);
+        DBObject sortBy = getQueryHeader(exchange, MongoDbConstants.SORT_BY);
+        DBObject fieldFilter = getQueryHeader(exchange, MongoDbConstants.FIELDS_FILTER);
+
+        FindIterable<DBObject> find = asyncCollection(exchange).find(toBson(query));
+        if (fieldFilter != null) {
+            find.projection(toBson(fieldFilter));
+        }
+        if (sortBy != null) {
+            find.sort(toBson(sortBy));
+        }
+        find.first(new SingleDocumentCallback(exchange, callback, MongoDbOperation.findOneByQuery));
+    }
+
+    protected void doAsyncFindAll(final Exchange exchange, final AsyncCallback callback) throws Exception {
+        DBObject query = null;
+        if (exchange.getIn().getBody() != null) {
+            query = getQueryBody(exchange, false);
+        }
+        final Bson filter = query == null ? new BasicDBObject() : toBson(query);
+        DBObject fieldFilter = getQueryHeader(exchange, MongoDbConstants.FIELDS_FILTER);
+        Integer batchSize = exchange.getIn().getHeader(MongoDbConstants.BATCH_SIZE, Integer.class);
+        Integer numToSkip = exchange.getIn().getHeader(MongoDbConstants.NUM_TO_SKIP, Integer.class);
+        Integer limit = exchange.getIn().getHeader(MongoDbConstants.LIMIT, Integer.class);
+        DBObject sortBy = getQueryHeader(exchange, MongoDbConstants.SORT_BY);
+
+        final MongoDbTotalSizeStrategy strategy = resolveTotalSizeStrategy(exchange);
+        final String cacheKey = strategy == MongoDbTotalSizeStrategy.cachedExact
+                ? MongoDbCountCache.key(calculateCollection(exchange), query) : null;
+
+        final MongoCollection<DBObject> collection = asyncCollection(exchange);
+        FindIterable<DBObject> find = collection.find(filter);
+        if (fieldFilter != null) {
+            find.projection(toBson(fieldFilter));
+        }
+        if (sortBy != null) {
+            find.sort(toBson(sortBy));
+        }
+        if (batchSize != null) {
+            find.batchSize(batchSize.intValue());
+        } else if (endpoint.getBatchSize() > 0) {
+            find.batchSize(endpoint.getBatchSize());
+        }
+        if (numToSkip != null) {
+            find.skip(numToSkip.intValue());
+        }
+        if (limit != null) {
+            find.limit(limit.intValue());
+        }
+
+        find.into(new ArrayList<DBObject>(), new SingleResultCallback<ArrayList<DBObject>>() {
+            @Override
+            public void onResult(final ArrayList<DBObject> page, Throwable t) {
+                if (t != null) {
+                    exchange.setException(MongoDbComponent.wrapInCamelMongoDbException(t));
+                    callback.done(false);
+                    return;
+                }
+                final ExchangeCallback<Long> completion = new ExchangeCallback<Long>(exchange, callback) {
+                    @Override
+                    protected void onSuccess(Long total) {
+                        Message resultMessage = prepareResponseMessage(exchange, MongoDbOperation.findAll);
+                        resultMessage.setBody(page);
+                        if (total != null) {
+                            resultMessage.setHeader(MongoDbConstants.RESULT_TOTAL_SIZE, total.intValue());
+                        }
+                        resultMessage.setHeader(MongoDbConstants.RESULT_PAGE_SIZE, page.size());
+                    }
+                };
+                // chain the count of the total result size, still without blocking
+                switch (strategy) {
+                case none:
+                    completion.onResult(null, null);
+                    break;
+                case estimated:
+                    collection.count(new BasicDBObject(), completion);
+                    break;
+                case cachedExact:
+                    Long cached = getCountCache().get(cacheKey);
+                    if (cached != null) {
+                        completion.onResult(cached, null);
+                    } else {
+                        collection.count(filter, new SingleResultCallback<Long>() {
+                            @Override
+                            public void onResult(Long total, Throwable t) {
+                                if (t == null) {
+                                    getCountCache().put(cacheKey, total, endpoint.getTotalSizeCacheTtl());
+                                }
+                                completion.onResult(total, t);
+                            }
+                        });
+                    }
+                    break;
+                default:
+                    collection.count(filter, completion);
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("rawtypes")
+    protected void doAsyncInsert(final Exchange exchange, AsyncCallback callback) throws Exception {
+        MongoCollection<DBObject> collection = asyncCollection(exchange);
+        Object insert = exchange.getIn().getBody(String.class);
+        if (insert != null) {
+            final DBObject insertObject = createSingleInsertObject(insert);
+            collection.insertOne(insertObject, new ExchangeCallback<Void>(exchange, callback) {
+                @Override
+                protected void onSuccess(Void result) {
+                    completeInsert(exchange, insertObject, writeResult(1, false, null));
+                }
+            });
+            return;
+        }
+
+        List insertList = exchange.getIn().getBody(List.class);
+        if (insertList == null) {
+            throw new CamelMongoDbException("MongoDB operation = insert, Body is not conversible to type DBObject nor List<DBObject>");
+        }
+        final List<DBObject> insertObjects = attemptConvertToList(insertList, exchange);
+        collection.insertMany(insertObjects, new ExchangeCallback<Void>(exchange, callback) {
+            @Override
+            protected void onSuccess(Void result) {
+                List<Object> oids = new ArrayList<Object>(insertObjects.size());
+                for (DBObject insertObject : insertObjects) {
+                    oids.add(insertObject.get("_id"));
+                }
+                exchange.getIn().setHeader(MongoDbConstants.OID, oids);
+                completeInsert(exchange, null, writeResult(insertObjects.size(), false, null));
+            }
+        });
+    }
+
+    protected void doAsyncSave(final Exchange exchange, AsyncCallback callback) throws Exception {
+        MongoCollection<DBObject> collection = asyncCollection(exchange);
+        final DBObject saveObj = exchange.getIn().getMandatoryBody(DBObject.class);
+        final Object id = saveObj.get("_id");
+
+        if (id == null) {
+            collection.insertOne(saveObj, new ExchangeCallback<Void>(exchange, callback) {
+                @Override
+                protected void onSuccess(Void result) {
+                    exchange.getIn().setHeader(MongoDbConstants.OID, saveObj.get("_id"));
+                    completeWrite(exchange, MongoDbOperation.save, writeResult(1, false, null));
+                }
+            });
+        } else {
+            collection.replaceOne(new BasicDBObject("_id", id), saveObj, new UpdateOptions().upsert(true), new ExchangeCallback<UpdateResult>(exchange, callback) {
+                @Override
+                protected void onSuccess(UpdateResult result) {
+                    exchange.getIn().setHeader(MongoDbConstants.OID, id);
+                    completeWrite(exchange, MongoDbOperation.save, toWriteResult(result));
+                }
+            });
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void doAsyncUpdate(final Exchange exchange, AsyncCallback callback) throws Exception {
+        MongoCollection<DBObject> collection = asyncCollection(exchange);
+        List<DBObject> saveObj = exchange.getIn().getMandatoryBody((Class<List<DBObject>>)(Class<?>)List.class);
+        if (saveObj.size() != 2) {
+            throw new CamelMongoDbException("MongoDB operation = insert, failed because body is not a List of DBObject objects with size = 2");
+        }
+
+        Bson updateCriteria = toBson(saveObj.get(0));
+        DBObject objNew = saveObj.get(1);
+        boolean multi = calculateBooleanValue(exchange.getIn().getHeader(MongoDbConstants.MULTIUPDATE, Boolean.class));
+        UpdateOptions options = new UpdateOptions().upsert(calculateBooleanValue(exchange.getIn().getHeader(MongoDbConstants.UPSERT, Boolean.class)));
+
+        ExchangeCallback<UpdateResult> resultCallback = new ExchangeCallback<UpdateResult>(exchange, callback) {
+            @Override
+            protected void onSuccess(UpdateResult result) {
+                WriteResult writeResult = toWriteResult(result);
+                completeWrite(exchange, MongoDbOperation.update, writeResult).setHeader(MongoDbConstants.RECORDS_AFFECTED, writeResult.getN());
+            }
+        };
+
+        // as with the blocking driver, an update document without operators replaces the matching document
+        if (!isUpdateDocument(objNew)) {
+            collection.replaceOne(updateCriteria, objNew, options, resultCallback);
+        } else if (multi) {
+            collection.updateMany(updateCriteria, toBson(objNew), options, resultCallback);
+        } else {
+            collection.updateOne(updateCriteria, toBson(objNew), options, resultCallback);
+        }
+    }
+
+    protected void doAsyncRemove(final Exchange exchange, AsyncCallback callback) throws Exception {
+        DBObject removeObj = getQueryBody(exchange, true);
+        asyncCollection(exchange).deleteMany(toBson(removeObj), new ExchangeCallback<DeleteResult>(exchange, callback) {
+            @Override
+            protected void onSuccess(DeleteResult result) {
+                WriteResult writeResult = result.wasAcknowledged() ? writeResult((int) result.getDeletedCount(), false, null) : WriteResult.unacknowledged();
+                completeWrite(exchange, MongoDbOperation.remove, writeResult).setHeader(MongoDbConstants.RECORDS_AFFECTED, writeResult.getN());
+            }
+        });
+    }
+
+    protected void doAsyncAggregate(final Exchange exchange, AsyncCallback callback) throws Exception {
+        DBObject query = exchange.getIn().getMandatoryBody(DBObject.class);
+        List<Bson> pipeline = new ArrayList<Bson>();
+        // Allow body to be a pipeline
+        if (query instanceof BasicDBList) {
+            for (Object stage : (BasicDBList) query) {
+                pipeline.add(toBson((DBObject) stage));
+            }
+        } else {
+            pipeline.add(toBson(query));
+        }
+
+        AggregateIterable<DBObject> aggregate = asyncCollection(exchange).aggregate(pipeline);
+        AggregationOptions options = createAggregationOptions(exchange);
+        aggregate.allowDiskUse(options.getAllowDiskUse());
+        if (options.getBatchSize() != null) {
+            aggregate.batchSize(options.getBatchSize());
+        }
+        if (options.getMaxTime(TimeUnit.MILLISECONDS) > 0) {
+            aggregate.maxTime(options.getMaxTime(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+        }
+        aggregate.into(new ArrayList<DBObject>(), new ExchangeCallback<ArrayList<DBObject>>(exchange, callback) {
+            @Override
+            protected void onSuccess(ArrayList<DBObject> result) {
+                prepareResponseMessage(exchange, MongoDbOperation.aggregate).setBody(result);
+            }
+        });
+    }
+
+    // --------- Convenience methods -----------------------
+
+    private MongoDatabase asyncDatabase(Exchange exchange) throws Exception {
+        return endpoint.getAsyncMongoConnection().getDatabase(calculateDb(exchange).getName());
+    }
+
+    private MongoCollection<DBObject> asyncCollection(Exchange exchange) throws Exception {
+        // reuse the blocking resolution logic, which only creates lightweight handles, to honour dynamicity
+        DBCollection dbCol = calculateCollection(exchange);
+        MongoCollection<DBObject> answer = endpoint.getAsyncMongoConnection().getDatabase(dbCol.getDB().getName())
+                .getCollection(dbCol.getName(), DBObject.class);
+        WriteConcern wc = extractWriteConcern(exchange);
+        return wc == null ? answer : answer.withWriteConcern(wc);
+    }
+
+    private Message completeWrite(Exchange exchange, MongoDbOperation operation, WriteResult result) {
+        Message resultMessage = prepareResponseMessage(exchange, operation);
+        processAndTransferWriteResult(result, exchange);
+        return resultMessage;
+    }
+
+    private static Bson toBson(DBObject dbObject) {
+        return dbObject instanceof Bson ? (Bson) dbObject : new BasicDBObject(dbObject.toMap());
+    }
+
+    private static boolean isUpdateDocument(DBObject objNew) {
+        return !objNew.keySet().isEmpty() && objNew.keySet().iterator().next().startsWith("$");
+    }
+
+    private static WriteResult writeResult(int n, boolean updateOfExisting, Object upsertedId) {
+        return new WriteResult(n, updateOfExisting, upsertedId);
+    }
+
+    private static WriteResult toWriteResult(UpdateResult result) {
+        if (!result.wasAcknowledged()) {
+            return WriteResult.unacknowledged();
+        }
+        BsonValue upsertedId = result.getUpsertedId();
+        if (upsertedId == null) {
+            return writeResult((int) result.getMatchedCount(), result.getMatchedCount() > 0, null);
+        }
+        return writeResult(1, false, toJavaValue(upsertedId));
+    }
+
+    private static Object toJavaValue(BsonValue value) {
+        if (value.isObjectId()) {
+            return value.asObjectId().getValue();
+        } else if (value.isString()) {
+            return value.asString().getValue();
+        } else if (value.isInt32()) {
+            return value.asInt32().getValue();
+        } else if (value.isInt64()) {
+            return value.asInt64().getValue();
+        }
+        return value;
+    }
+
+    /**
+     * Completes the exchange from the driver's thread once the operation has finished.
+     */
+    private abstract static class ExchangeCallback<T> implements SingleResultCallback<T> {
+        private final Exchange exchange;
+        private final AsyncCallback callback;
+
+        ExchangeCallback(Exchange exchange, AsyncCallback callback) {
+            this.exchange = exchange;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onResult(T result, Throwable t) {
+            try {
+                if (t != null) {
+                    exchange.setException(MongoDbComponent.wrapInCamelMongoDbException(t));
+                } else {
+                    onSuccess(result);
+                }
+            } catch (Throwable e) {
+                exchange.setException(MongoDbComponent.wrapInCamelMongoDbException(e));
+            }
+            callback.done(false);
+        }
+
+        protected abstract void onSuccess(T result) throws Exception;
+    }
+
+    private final class SingleDocumentCallback extends ExchangeCallback<DBObject> {
+        private final Exchange exchange;
+        private final MongoDbOperation operation;
+
+        SingleDocumentCallback(Exchange exchange, AsyncCallback callback, MongoDbOperation operation) {
+            super(exchange, callback);
+            this.exchange = exchange;
+            this.operation = operation;
+        }
+
+        @Override
+        protected void onSuccess(DBObject result) {
+            Message resultMessage = prepareResponseMessage(exchange, operation);
+            resultMessage.setBody(result);
+            resultMessage.setHeader(MongoDbConstants.RESULT_TOTAL_SIZE, result == null ? 0 : 1);
+        }
+    }
+}
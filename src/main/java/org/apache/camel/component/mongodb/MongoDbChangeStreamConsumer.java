@@ -0,0 +1,274 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.CommandResult;
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+import com.mongodb.ReadPreference;
+import com.mongodb.util.JSON;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.impl.DefaultConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Consumes the change stream of a collection, or of the whole database when the endpoint has no collection: every insert, update,
+ * replace and delete becomes an exchange whose body is the change event. Unlike tailable cursors, this works on any collection, but
+ * needs a replica set (or sharded cluster) of MongoDB 3.6 or later, 4.0 to watch a database.
+ * <p/>
+ * The stream is opened with the aggregate command and read with getMore, since this driver predates the watch API. The resume token
+ * of the last event processed is kept by a {@link MongoDbTailTrackingManager}, so with persistent tail tracking the consumer resumes
+ * where it left off, in the tail tracking collection, across restarts. Dropping or renaming the watched collection invalidates the
+ * stream, which is reported to the exception handler and ends the watching.
+ */
+public class MongoDbChangeStreamConsumer extends DefaultConsumer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MongoDbChangeStreamConsumer.class);
+    // how long a getMore waits on the server for new events, which bounds the time to stop
+    private static final int AWAIT_TIME = 1000;
+    private static final String RESUME_TOKEN_FIELD = "_id";
+    private static final String INVALIDATE = "invalidate";
+
+    private final MongoDbEndpoint endpoint;
+    private final DB db;
+    private List<DBObject> pipeline;
+    private MongoDbTailTrackingManager tailTracking;
+    private ExecutorService executor;
+    private ScheduledExecutorService checkpointExecutor;
+    private volatile boolean keepRunning;
+
+    public MongoDbChangeStreamConsumer(MongoDbEndpoint endpoint, Processor processor) {
+        super(endpoint, processor);
+        this.endpoint = endpoint;
+        this.db = endpoint.getDb();
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        pipeline = parsePipeline(endpoint.getChangeStreamPipeline());
+
+        // the event's _id is its resume token, tracked like the increasing field of a tailable consumer
+        tailTracking = new MongoDbTailTrackingManager(endpoint.getMongoConnection(), new MongoDbTailTrackingConfig(
+                endpoint.isPersistentTailTracking(), RESUME_TOKEN_FIELD, endpoint.getTailTrackDb() == null ? endpoint.getDatabase()
+                        : endpoint.getTailTrackDb(), endpoint.getTailTrackCollection(), endpoint.getTailTrackField(), endpoint.getPersistentId()));
+        tailTracking.initialize();
+        tailTracking.recoverFromStore();
+        if (endpoint.isPersistentTailTracking() && (endpoint.getPersistEveryN() > 0 || endpoint.getPersistInterval() > 0)) {
+            checkpointExecutor = endpoint.getCamelContext().getExecutorServiceManager()
+                    .newSingleThreadScheduledExecutor(this, endpoint.getEndpointUri() + "-checkpoint");
+            tailTracking.startCheckpointing(checkpointExecutor, endpoint.getPersistEveryN(), endpoint.getPersistInterval());
+        }
+
+        keepRunning = true;
+        executor = endpoint.getCamelContext().getExecutorServiceManager().newSingleThreadExecutor(this, endpoint.getEndpointUri());
+        executor.execute(new Watcher());
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        keepRunning = false;
+        if (executor != null) {
+            endpoint.getCamelContext().getExecutorServiceManager().shutdownGraceful(executor);
+            executor = null;
+        }
+        if (checkpointExecutor != null) {
+            endpoint.getCamelContext().getExecutorServiceManager().shutdownGraceful(checkpointExecutor);
+            checkpointExecutor = null;
+        }
+        if (tailTracking != null) {
+            tailTracking.persistToStore();
+        }
+        super.doStop();
+    }
+
+    private static List<DBObject> parsePipeline(String source) throws CamelMongoDbException {
+        List<DBObject> answer = new ArrayList<DBObject>();
+        if (source == null) {
+            return answer;
+        }
+        Object parsed;
+        try {
+            parsed = JSON.parse(source);
+        } catch (Exception e) {
+            throw new CamelMongoDbException("Invalid change stream pipeline: " + source, e);
+        }
+        if (parsed instanceof BasicDBList) {
+            for (Object stage : (BasicDBList) parsed) {
+                if (!(stage instanceof DBObject)) {
+                    throw new CamelMongoDbException("Change stream pipeline stages must be JSON documents: " + source);
+                }
+                answer.add((DBObject) stage);
+            }
+        } else if (parsed instanceof DBObject) {
+            answer.add((DBObject) parsed);
+        } else {
+            throw new CamelMongoDbException("Change stream pipeline is neither a JSON array nor a JSON document: " + source);
+        }
+        return answer;
+    }
+
+    /**
+     * Opens the stream after the last event processed, if any.
+     *
+     * @return the cursor document of the aggregate command, with its id, namespace and first batch
+     */
+    protected DBObject open() throws CamelMongoDbException {
+        BasicDBObject changeStream = new BasicDBObject();
+        if (tailTracking.lastVal != null) {
+            changeStream.put("resumeAfter", tailTracking.lastVal);
+        }
+        if (endpoint.getFullDocument() != null) {
+            changeStream.put("fullDocument", endpoint.getFullDocument());
+        }
+        BasicDBList stages = new BasicDBList();
+        stages.add(new BasicDBObject("$changeStream", changeStream));
+        stages.addAll(pipeline);
+
+        BasicDBObject cursorOptions = new BasicDBObject();
+        if (endpoint.getBatchSize() > 0) {
+            cursorOptions.put("batchSize", endpoint.getBatchSize());
+        }
+        Object aggregate = endpoint.getCollection() == null ? (Object) 1 : endpoint.getCollection();
+        return command(new BasicDBObject("aggregate", aggregate).append("pipeline", stages).append("cursor", cursorOptions));
+    }
+
+    private DBObject getMore(long cursorId, String namespace) throws CamelMongoDbException {
+        BasicDBObject getMore = new BasicDBObject("getMore", cursorId)
+                .append("collection", namespace.substring(namespace.indexOf('.') + 1))
+                .append("maxTimeMS", AWAIT_TIME);
+        if (endpoint.getBatchSize() > 0) {
+            getMore.put("batchSize", endpoint.getBatchSize());
+        }
+        return command(getMore);
+    }
+
+    /**
+     * Runs the command on the primary, as a cursor only lives on the server which opened it, whatever the read preference of the
+     * endpoint.
+     */
+    private DBObject command(DBObject command) throws CamelMongoDbException {
+        CommandResult result = db.command(command, ReadPreference.primary());
+        if (!result.ok()) {
+            throw new CamelMongoDbException("Change stream command failed: " + result.getErrorMessage());
+        }
+        return (DBObject) result.get("cursor");
+    }
+
+    private void killCursor(long cursorId, String namespace) {
+        try {
+            BasicDBList cursors = new BasicDBList();
+            cursors.add(cursorId);
+            db.command(new BasicDBObject("killCursors", namespace.substring(namespace.indexOf('.') + 1)).append("cursors", cursors),
+                    ReadPreference.primary());
+        } catch (Exception e) {
+            LOG.debug("Could not kill change stream cursor " + cursorId, e);
+        }
+    }
+
+    private void process(DBObject event) {
+        Exchange exchange = endpoint.createConsumedExchange(event);
+        exchange.getIn().setHeader(MongoDbConstants.CHANGE_OPERATION_TYPE, event.get("operationType"));
+        Object ns = event.get("ns");
+        if (ns instanceof DBObject) {
+            exchange.getIn().setHeader(MongoDbConstants.DATABASE, ((DBObject) ns).get("db"));
+            exchange.getIn().setHeader(MongoDbConstants.COLLECTION, ((DBObject) ns).get("coll"));
+        }
+        try {
+            getProcessor().process(exchange);
+        } catch (Exception e) {
+            exchange.setException(e);
+        }
+        if (exchange.getException() != null) {
+            getExceptionHandler().handleException("Error processing change event " + event.get(RESUME_TOKEN_FIELD), exchange,
+                    exchange.getException());
+        }
+        tailTracking.setLastVal(event);
+    }
+
+    /**
+     * The watched collection or database was dropped or renamed: the stream cannot be resumed past this event, so watching stops,
+     * until the consumer is restarted.
+     */
+    private void invalidated() {
+        keepRunning = false;
+        tailTracking.persistToStore();
+        getExceptionHandler().handleException(new CamelMongoDbException("The change stream of " + (endpoint.getCollection() == null
+                ? endpoint.getDatabase() : endpoint.getDatabase() + "." + endpoint.getCollection())
+                + " was invalidated, as it was dropped or renamed; the consumer stopped watching it"));
+    }
+
+    private final class Watcher implements Runnable {
+        @Override
+        public void run() {
+            while (keepRunning && isRunAllowed()) {
+                long cursorId = 0;
+                String namespace = null;
+                try {
+                    DBObject cursor = open();
+                    List<?> batch = (List<?>) cursor.get("firstBatch");
+                    cursorId = ((Number) cursor.get("id")).longValue();
+                    namespace = (String) cursor.get("ns");
+                    while (true) {
+                        for (Object event : batch) {
+                            if (INVALIDATE.equals(((DBObject) event).get("operationType"))) {
+                                invalidated();
+                                return;
+                            }
+                            process((DBObject) event);
+                        }
+                        if (cursorId == 0 || !keepRunning) {
+                            break;
+                        }
+                        cursor = getMore(cursorId, namespace);
+                        batch = (List<?>) cursor.get("nextBatch");
+                        cursorId = ((Number) cursor.get("id")).longValue();
+                    }
+                } catch (Exception e) {
+                    if (keepRunning) {
+                        getExceptionHandler().handleException("Error reading the change stream, it will be resumed after "
+                                + endpoint.getCursorRegenerationDelay() + "ms", e);
+                    }
+                } finally {
+                    if (cursorId != 0) {
+                        killCursor(cursorId, namespace);
+                    }
+                }
+
+                tailTracking.persistToStore();
+                if (keepRunning && endpoint.getCursorRegenerationDelay() > 0) {
+                    try {
+                        Thread.sleep(endpoint.getCursorRegenerationDelay());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
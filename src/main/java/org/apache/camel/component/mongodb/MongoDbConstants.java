@@ -37,6 +37,30 @@ public final class MongoDbConstants {
     public static final String FROM_TAILABLE = "CamelMongoDbTailable";
     public static final String WRITERESULT = "CamelMongoWriteResult";
     public static final String OID = "CamelMongoOid";
+    public static final String BULK_ORDERED = "CamelMongoDbBulkOrdered";
+    public static final String INSERTED_COUNT = "CamelMongoDbInsertedCount";
+    public static final String MATCHED_COUNT = "CamelMongoDbMatchedCount";
+    public static final String MODIFIED_COUNT = "CamelMongoDbModifiedCount";
+    public static final String REMOVED_COUNT = "CamelMongoDbRemovedCount";
+    public static final String UPSERTED_IDS = "CamelMongoDbUpsertedIds";
+    public static final String FAILED_OFFSETS = "CamelMongoDbFailedOffsets";
+    public static final String TOTAL_SIZE_STRATEGY = "CamelMongoDbTotalSizeStrategy";
+    public static final String PAGINATION_KEY = "CamelMongoDbPaginationKey";
+    public static final String CONTINUATION_TOKEN = "CamelMongoDbContinuationToken";
+    public static final String ALLOW_DISK_USE = "CamelMongoDbAllowDiskUse";
+    public static final String MAX_TIME_MS = "CamelMongoDbMaxTimeMS";
+    public static final String MATERIALIZED_COLLECTION = "CamelMongoDbMaterializedCollection";
+    public static final String UPDATE = "CamelMongoDbUpdate";
+    public static final String RETURN_NEW = "CamelMongoDbReturnNew";
+    public static final String LEASE_OWNER = "CamelMongoDbLeaseOwner";
+    public static final String DISTINCT_QUERY_FIELD = "CamelMongoDbDistinctQueryField";
+    public static final String MAPREDUCE_OUTPUT_TYPE = "CamelMongoDbMapReduceOutputType";
+    public static final String MAPREDUCE_OUTPUT_COLLECTION = "CamelMongoDbMapReduceOutputCollection";
+    public static final String INPUT_COUNT = "CamelMongoDbInputCount";
+    public static final String EMIT_COUNT = "CamelMongoDbEmitCount";
+    public static final String OUTPUT_COUNT = "CamelMongoDbOutputCount";
+    public static final String DURATION = "CamelMongoDbDuration";
+    public static final String CHANGE_OPERATION_TYPE = "CamelMongoDbChangeOperationType";
 
     private MongoDbConstants() {
     }
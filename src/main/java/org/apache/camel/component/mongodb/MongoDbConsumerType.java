@@ -18,7 +18,11 @@ package org.apache.camel.component.mongodb;
 
 public enum MongoDbConsumerType {
 
-    tailable
+    tailable,
+    workQueue,
+    changeStream,
+    polling,
+    oplog
     // more consumer types to be included in future versions
     
 }
@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+
+import org.apache.camel.util.LRUCache;
+
+/**
+ * Cache of the exact counts used by the {@link MongoDbTotalSizeStrategy#cachedExact} strategy, keyed by collection and query.
+ * Entries expire after a fixed time to live, so a cached count lags behind the collection by at most that long.
+ */
+public class MongoDbCountCache {
+
+    private static final int MAX_ENTRIES = 1000;
+
+    private final LRUCache<String, Entry> cache = new LRUCache<String, Entry>(MAX_ENTRIES);
+
+    private static final class Entry {
+        private final long count;
+        private final long expiresAt;
+
+        private Entry(long count, long expiresAt) {
+            this.count = count;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public static String key(DBCollection dbCol, DBObject query) {
+        return dbCol.getFullName() + ":" + (query == null ? "{}" : JSON.serialize(query));
+    }
+
+    /**
+     * @return the cached count, or null if there is none or it has expired
+     */
+    public Long get(String key) {
+        Entry entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt < System.currentTimeMillis()) {
+            cache.remove(key);
+            return null;
+        }
+        return entry.count;
+    }
+
+    public void put(String key, long count, long ttl) {
+        cache.put(key, new Entry(count, System.currentTimeMillis() + ttl));
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.mongodb.Cursor;
+import com.mongodb.DBObject;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.RuntimeCamelException;
+import org.apache.camel.support.SynchronizationAdapter;
+
+/**
+ * Streaming body of the findAll operation when the output type is {@link MongoDbOutputType#DBCursor}. Documents are fetched from
+ * the server lazily, one batch at a time, so a result set of any size is processed with constant memory, e.g. by a streaming
+ * splitter.
+ * <p/>
+ * The underlying cursor is closed once it is exhausted, when the iterator is closed (the splitter does so when it is done) or at
+ * the latest when the exchange completes, so that no server-side cursor is leaked by a route that stops iterating halfway.
+ */
+public class MongoDbCursorIterator extends SynchronizationAdapter implements Iterator<Object>, Closeable {
+
+    private final Cursor cursor;
+    private final boolean rawBson;
+    private final String valueField;
+    private volatile boolean closed;
+
+    public MongoDbCursorIterator(Cursor cursor, boolean rawBson) {
+        this(cursor, rawBson, null);
+    }
+
+    /**
+     * @param valueField if not null, the iterator returns the value of this field of each document, rather than the document
+     */
+    public MongoDbCursorIterator(Cursor cursor, boolean rawBson, String valueField) {
+        this.cursor = cursor;
+        this.rawBson = rawBson;
+        this.valueField = valueField;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        boolean answer = cursor.hasNext();
+        if (!answer) {
+            close();
+        }
+        return answer;
+    }
+
+    @Override
+    public Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        DBObject document = cursor.next();
+        if (valueField != null) {
+            return document.get(valueField);
+        } else if (!rawBson) {
+            return document;
+        }
+        try {
+            return MongoDbRawBsonDecoderFactory.toByteArray(document);
+        } catch (IOException e) {
+            throw new RuntimeCamelException(e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void onDone(Exchange exchange) {
+        close();
+    }
+}
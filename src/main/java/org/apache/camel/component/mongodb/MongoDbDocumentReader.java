@@ -0,0 +1,206 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBDecoder;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.util.JSON;
+
+/**
+ * Reads documents one at a time from a stream holding either newline-delimited JSON or concatenated BSON documents, so that
+ * arbitrarily large payloads can be processed with constant memory. The format is detected from the first bytes of the stream: a
+ * plausible length prefix of a BSON document means BSON, a '{', possibly preceded by whitespace, means JSON.
+ * <p/>
+ * A JSON line that cannot be parsed is reported through {@link #next()} and skipped, so reading can go on. BSON documents are
+ * length-prefixed, so a corrupt document leaves the stream unusable and ends the reading with an {@link IOException}.
+ */
+public class MongoDbDocumentReader implements Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAX_BSON_SIZE = 16 * 1024 * 1024;
+
+    private final InputStream in;
+    private final DBDecoder decoder;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private Boolean bson;
+    private long position;
+    private long offset = -1;
+
+    public MongoDbDocumentReader(InputStream in) {
+        this(in, new DefaultDBDecoder());
+    }
+
+    public MongoDbDocumentReader(InputStream in, DBDecoder decoder) {
+        this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in);
+        this.decoder = decoder;
+    }
+
+    /**
+     * @return true if there is at least one more document in the stream
+     */
+    public boolean hasNext() throws IOException {
+        if (bson == null) {
+            bson = detectBson();
+        }
+        in.mark(1);
+        int b = in.read();
+        // skip the whitespace between JSON documents. BSON length prefixes may well contain whitespace bytes, so they must be left
+        // untouched
+        while (b != -1 && !bson && Character.isWhitespace(b)) {
+            position++;
+            in.mark(1);
+            b = in.read();
+        }
+        if (b == -1) {
+            return false;
+        }
+        in.reset();
+        return true;
+    }
+
+    /**
+     * Peeks at the first bytes of the stream, without consuming them. A BSON stream starts with a plausible document length, that is
+     * between 5 bytes and the maximum BSON document size, whose last byte is the 0x00 terminator of the document. Text never does,
+     * as its 4th byte would have to be 0x00 or 0x01. Otherwise the stream is JSON if it starts with a '{', possibly after some
+     * whitespace, and is taken as (corrupt) BSON if not.
+     */
+    private boolean detectBson() throws IOException {
+        in.mark(4);
+        byte[] lengthBytes = new byte[4];
+        int read = 0;
+        int n = 0;
+        while (read < 4 && n != -1) {
+            n = in.read(lengthBytes, read, 4 - read);
+            read += Math.max(0, n);
+        }
+        in.reset();
+        if (read == 4) {
+            int length = toInt(lengthBytes);
+            if (length >= 5 && length <= MAX_BSON_SIZE && isTerminatorAt(length - 1)) {
+                return true;
+            }
+        }
+
+        for (int i = 0; i < read; i++) {
+            if (lengthBytes[i] == '{') {
+                return false;
+            }
+            if (!Character.isWhitespace(lengthBytes[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isTerminatorAt(int offset) throws IOException {
+        in.mark(offset + 1);
+        try {
+            byte[] skipped = new byte[Math.min(offset, 8192)];
+            int remaining = offset;
+            while (remaining > 0) {
+                int n = in.read(skipped, 0, Math.min(remaining, skipped.length));
+                if (n == -1) {
+                    return false;
+                }
+                remaining -= n;
+            }
+            return in.read() == 0;
+        } finally {
+            in.reset();
+        }
+    }
+
+    private static int toInt(byte[] bytes) {
+        return (bytes[0] & 0xff) | (bytes[1] & 0xff) << 8 | (bytes[2] & 0xff) << 16 | (bytes[3] & 0xff) << 24;
+    }
+
+    /**
+     * Reads the next document. {@link #getOffset()} returns the position where it starts, even if it could not be parsed.
+     *
+     * @throws CamelMongoDbException if the JSON document could not be parsed; it has been skipped
+     * @throws IOException if the stream could not be read or a BSON document is truncated
+     */
+    public DBObject next() throws IOException, CamelMongoDbException {
+        offset = position;
+        return bson ? nextBson() : nextJson();
+    }
+
+    /**
+     * @return the byte offset in the stream of the last document returned or rejected by {@link #next()}
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private DBObject nextJson() throws IOException, CamelMongoDbException {
+        line.reset();
+        int b = in.read();
+        while (b != -1 && b != '\n') {
+            line.write(b);
+            b = in.read();
+        }
+        position += line.size() + (b == -1 ? 0 : 1);
+
+        String json = new String(line.toByteArray(), UTF8).trim();
+        try {
+            return (DBObject) JSON.parse(json);
+        } catch (Exception e) {
+            throw new CamelMongoDbException("Could not parse JSON document at offset " + offset, e);
+        }
+    }
+
+    private DBObject nextBson() throws IOException {
+        byte[] lengthBytes = new byte[4];
+        readFully(lengthBytes, 0, 4);
+        int length = toInt(lengthBytes);
+        if (length < 5) {
+            throw new IOException("Invalid BSON document length " + length + " at offset " + offset);
+        }
+
+        byte[] document = new byte[length];
+        System.arraycopy(lengthBytes, 0, document, 0, 4);
+        readFully(document, 4, length - 4);
+        position += length;
+        return decoder.decode(document, (DBCollection) null);
+    }
+
+    private void readFully(byte[] buffer, int off, int len) throws IOException {
+        int read = 0;
+        while (read < len) {
+            int n = in.read(buffer, off + read, len - read);
+            if (n == -1) {
+                throw new EOFException("Truncated BSON document at offset " + offset);
+            }
+            read += n;
+        }
+    }
+}
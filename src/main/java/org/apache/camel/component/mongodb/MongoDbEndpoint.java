@@ -16,31 +16,49 @@
  */
 package org.apache.camel.component.mongodb;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLSocketFactory;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
+import com.mongodb.MapReduceCommand;
 import com.mongodb.Mongo;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
 import com.mongodb.ReadPreference;
 import com.mongodb.WriteConcern;
 import com.mongodb.WriteResult;
+import com.mongodb.async.client.MongoClientSettings;
+import com.mongodb.async.client.MongoClients;
+import com.mongodb.connection.ClusterConnectionMode;
+import com.mongodb.connection.ClusterSettings;
+import com.mongodb.connection.ConnectionPoolSettings;
+import com.mongodb.connection.ServerSettings;
+import com.mongodb.connection.SocketSettings;
+import com.mongodb.connection.SslSettings;
 import org.apache.camel.Consumer;
 import org.apache.camel.Exchange;
 import org.apache.camel.Message;
 import org.apache.camel.Processor;
 import org.apache.camel.Producer;
+import org.apache.camel.RuntimeCamelException;
 import org.apache.camel.impl.DefaultEndpoint;
 import org.apache.camel.spi.Metadata;
 import org.apache.camel.spi.UriEndpoint;
 import org.apache.camel.spi.UriParam;
 import org.apache.camel.spi.UriPath;
 import org.apache.camel.util.ObjectHelper;
+import org.apache.camel.util.ServiceHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,6 +71,9 @@ public class MongoDbEndpoint extends DefaultEndpoint {
     private static final Logger LOG = LoggerFactory.getLogger(MongoDbEndpoint.class);
 
     private Mongo mongoConnection;
+    private com.mongodb.async.client.MongoClient asyncMongoConnection;
+    private MongoDbQueryCache queryCache;
+    private MongoDbMaterializer materializer;
 
     @UriPath @Metadata(required = "true")
     private String connectionBean;
@@ -88,6 +109,28 @@ public class MongoDbEndpoint extends DefaultEndpoint {
     @UriParam
     private String persistentId;
     @UriParam
+    private int persistEveryN;
+    @UriParam
+    private long persistInterval;
+    @UriParam
+    private String changeStreamPipeline;
+    @UriParam
+    private String fullDocument;
+    @UriParam(defaultValue = "500")
+    private long pollDelay = 500;
+    @UriParam(defaultValue = "30000")
+    private long maxPollDelay = 30000;
+    @UriParam
+    private String oplogNamespacePattern;
+    @UriParam
+    private long maxBatchDelay;
+    @UriParam(defaultValue = "1")
+    private int partitions = 1;
+    @UriParam(defaultValue = "-1")
+    private int partitionIndex = -1;
+    @UriParam(defaultValue = "_id")
+    private String partitionKey = "_id";
+    @UriParam
     private String tailTrackDb;
     @UriParam
     private String tailTrackCollection;
@@ -98,6 +141,75 @@ public class MongoDbEndpoint extends DefaultEndpoint {
     @UriParam
     private MongoDbOutputType outputType;
 
+    // producer batching
+    @UriParam
+    private long batchWindow;
+    @UriParam(defaultValue = "1000")
+    private int maxBatchSize = 1000;
+    @UriParam
+    private boolean asyncDriver;
+    @UriParam
+    private boolean streamingInsert;
+    @UriParam
+    private boolean rawBson;
+    @UriParam
+    private int batchSize;
+    @UriParam(defaultValue = "exact")
+    private MongoDbTotalSizeStrategy totalSizeStrategy = MongoDbTotalSizeStrategy.exact;
+    @UriParam(defaultValue = "60000")
+    private long totalSizeCacheTtl = 60000;
+    @UriParam
+    private String paginationKey;
+    @UriParam
+    private int parallelScan;
+    @UriParam(defaultValue = "_id")
+    private String parallelScanKey = "_id";
+    @UriParam
+    private long findByIdBatchWindow;
+    @UriParam
+    private String query;
+    @UriParam
+    private int parsedQueryCacheSize;
+    @UriParam
+    private boolean allowDiskUse;
+    @UriParam
+    private long maxTimeMS;
+    @UriParam
+    private String materializedCollection;
+    @UriParam
+    private long materializeInterval;
+    @UriParam
+    private long materializeWriteThreshold;
+    @UriParam(defaultValue = "60000")
+    private long leaseTime = 60000;
+    @UriParam(defaultValue = "1")
+    private int concurrentConsumers = 1;
+    @UriParam(defaultValue = "1000")
+    private long workQueueIdleDelay = 1000;
+    @UriParam(defaultValue = "10000")
+    private long workQueueRetryDelay = 10000;
+    @UriParam
+    private int workQueueMaxAttempts;
+    @UriParam(defaultValue = "1000")
+    private int tailingQueueSize = 1000;
+    @UriParam(defaultValue = "INLINE")
+    private MapReduceCommand.OutputType mapReduceOutputType = MapReduceCommand.OutputType.INLINE;
+    @UriParam
+    private String mapReduceOutputCollection;
+    @UriParam
+    private String mapReduceIncrementalField;
+    @UriParam
+    private long slowQueryThreshold;
+    @UriParam(defaultValue = "0.1")
+    private double explainSampleRate = 0.1;
+    @UriParam
+    private boolean slowQueryLog;
+    private MongoDbQueryTemplate queryTemplate;
+    @UriParam
+    private int cacheSize;
+    @UriParam(defaultValue = "60000")
+    private long cacheTtl = 60000;
+
     private DBCollection dbCollection;
     private DB db;
 
@@ -120,6 +232,12 @@ public class MongoDbEndpoint extends DefaultEndpoint {
     public Producer createProducer() throws Exception {
         validateOptions('P');
         initializeConnection();
+        if (asyncDriver) {
+            if (mongoConnection instanceof MongoClient) {
+                validateAsyncClientOptions(((MongoClient) mongoConnection).getMongoClientOptions());
+            }
+            return new MongoDbAsyncProducer(this);
+        }
         return new MongoDbProducer(this);
     }
 
@@ -137,6 +255,17 @@ public class MongoDbEndpoint extends DefaultEndpoint {
         Consumer consumer;
         if (consumerType == MongoDbConsumerType.tailable) {
             consumer = new MongoDbTailableCursorConsumer(this, processor);
+        } else if (consumerType == MongoDbConsumerType.workQueue) {
+            consumer = new MongoDbWorkQueueConsumer(this, processor);
+        } else if (consumerType == MongoDbConsumerType.changeStream) {
+            consumer = new MongoDbChangeStreamConsumer(this, processor);
+        } else if (consumerType == MongoDbConsumerType.polling) {
+            MongoDbPollingConsumer pollingConsumer = new MongoDbPollingConsumer(this, processor);
+            pollingConsumer.setDelay(pollDelay);
+            pollingConsumer.setMaxMessagesPerPoll(maxBatchSize);
+            consumer = pollingConsumer;
+        } else if (consumerType == MongoDbConsumerType.oplog) {
+            consumer = new MongoDbOplogConsumer(this, processor);
         } else {
             throw new CamelMongoDbException("Consumer type not supported: " + consumerType);
         }
@@ -146,15 +275,17 @@ public class MongoDbEndpoint extends DefaultEndpoint {
     }
 
     /**
-     * Check if outputType is compatible with operation. DbCursor and DBObjectList applies to findAll. DBObject applies to others.
+     * Check if outputType is compatible with operation. DbCursor applies to findAll, aggregate and distinct, DBObjectList to findAll. DBObject
+     * applies to others.
      */
     private void validateOutputType() {
         if (!ObjectHelper.isEmpty(outputType)) {
             if (MongoDbOutputType.DBObjectList.equals(outputType) && !(MongoDbOperation.findAll.equals(operation))) {
                 throw new IllegalArgumentException("outputType DBObjectList is only compatible with operation findAll");
             }
-            if (MongoDbOutputType.DBCursor.equals(outputType) && !(MongoDbOperation.findAll.equals(operation))) {
-                throw new IllegalArgumentException("outputType DBCursor is only compatible with operation findAll");
+            if (MongoDbOutputType.DBCursor.equals(outputType) && !(MongoDbOperation.findAll.equals(operation))
+                    && !(MongoDbOperation.aggregate.equals(operation)) && !(MongoDbOperation.distinct.equals(operation))) {
+                throw new IllegalArgumentException("outputType DBCursor is only compatible with operations findAll, aggregate and distinct");
             }
             if (MongoDbOutputType.DBObject.equals(outputType) && (MongoDbOperation.findAll.equals(operation))) {
                 throw new IllegalArgumentException("outputType DBObject is not compatible with operation findAll");
@@ -167,23 +298,43 @@ public class MongoDbEndpoint extends DefaultEndpoint {
         // they haven't been explicitly set, but it is enough
         if (role == 'P') {
             if (!ObjectHelper.isEmpty(consumerType) || persistentTailTracking || !ObjectHelper.isEmpty(tailTrackDb)
-                    || !ObjectHelper.isEmpty(tailTrackCollection) || !ObjectHelper.isEmpty(tailTrackField) || cursorRegenerationDelay != 1000L) {
-                throw new IllegalArgumentException("consumerType, tailTracking, cursorRegenerationDelay options cannot appear on a producer endpoint");
+                    || !ObjectHelper.isEmpty(tailTrackCollection) || !ObjectHelper.isEmpty(tailTrackField) || cursorRegenerationDelay != 1000L
+                    || persistEveryN > 0 || persistInterval > 0 || changeStreamPipeline != null || fullDocument != null
+                    || oplogNamespacePattern != null || maxBatchDelay > 0 || partitions != 1 || partitionIndex != -1) {
+                throw new IllegalArgumentException("consumerType, tailTracking, cursorRegenerationDelay, changeStreamPipeline, fullDocument, "
+                        + "oplogNamespacePattern, maxBatchDelay, partitions, partitionIndex options cannot appear on a producer endpoint");
             }
         } else if (role == 'C') {
             if (!ObjectHelper.isEmpty(operation) || !ObjectHelper.isEmpty(writeConcern) || writeConcernRef != null
-                   || dynamicity || outputType != null) {
-                throw new IllegalArgumentException("operation, writeConcern, writeConcernRef, dynamicity, outputType "
+                   || dynamicity || outputType != null || batchWindow != 0
+                   || findByIdBatchWindow != 0
+                   || query != null && consumerType != MongoDbConsumerType.workQueue && consumerType != MongoDbConsumerType.polling) {
+                throw new IllegalArgumentException("operation, writeConcern, writeConcernRef, dynamicity, outputType, batchWindow, findByIdBatchWindow, query "
                         + "options cannot appear on a consumer endpoint");
             }
-            if (consumerType == MongoDbConsumerType.tailable) {
+            if (consumerType == MongoDbConsumerType.tailable || consumerType == MongoDbConsumerType.polling) {
                 if (tailTrackIncreasingField == null) {
-                    throw new IllegalArgumentException("tailTrackIncreasingField option must be set for tailable cursor MongoDB consumer endpoint");
+                    throw new IllegalArgumentException("tailTrackIncreasingField option must be set for tailable cursor and polling MongoDB consumer endpoints");
                 }
                 if (persistentTailTracking && (ObjectHelper.isEmpty(persistentId))) {
                     throw new IllegalArgumentException("persistentId is compulsory for persistent tail tracking");
                 }
             }
+            if (partitions > 1) {
+                if (consumerType != null && consumerType != MongoDbConsumerType.tailable) {
+                    throw new IllegalArgumentException("partitions option is only supported by the tailable consumer");
+                }
+                if (partitionIndex >= partitions) {
+                    throw new IllegalArgumentException("partitionIndex must be lower than partitions");
+                }
+                if (partitionIndex < 0 && ObjectHelper.isEmpty(persistentId)) {
+                    throw new IllegalArgumentException("persistentId is compulsory for partitions leased without partitionIndex");
+                }
+            }
+            if ((consumerType == MongoDbConsumerType.changeStream || consumerType == MongoDbConsumerType.oplog)
+                    && persistentTailTracking && ObjectHelper.isEmpty(persistentId)) {
+                throw new IllegalArgumentException("persistentId is compulsory for persistent tail tracking");
+            }
 
         } else {
             throw new IllegalArgumentException("Unknown endpoint role");
@@ -201,7 +352,8 @@ public class MongoDbEndpoint extends DefaultEndpoint {
      */
     public void initializeConnection() throws CamelMongoDbException {
         LOG.info("Initialising MongoDb endpoint: {}", this.toString());
-        if (database == null || (collection == null && !(MongoDbOperation.getDbStats.equals(operation) || MongoDbOperation.command.equals(operation)))) {
+        if (database == null || (collection == null && !(MongoDbOperation.getDbStats.equals(operation) || MongoDbOperation.command.equals(operation)
+                || MongoDbConsumerType.changeStream.equals(consumerType) || MongoDbConsumerType.oplog.equals(consumerType)))) {
             throw new CamelMongoDbException("Missing required endpoint configuration: database and/or collection");
         }
         db = mongoConnection.getDB(database);
@@ -278,17 +430,181 @@ public class MongoDbEndpoint extends DefaultEndpoint {
             throw new IllegalArgumentException(msg);
         }
 
+        if (query != null) {
+            queryTemplate = MongoDbQueryTemplate.parse(query);
+        }
+
         setWriteReadOptionsOnConnection();
         super.doStart();
     }
 
+    @Override
+    protected void doStop() throws Exception {
+        super.doStop();
+        synchronized (this) {
+            if (asyncMongoConnection != null) {
+                LOG.debug("Closing the async connection {} on {}", asyncMongoConnection, this);
+                asyncMongoConnection.close();
+                asyncMongoConnection = null;
+            }
+            queryCache = null;
+            ServiceHelper.stopService(materializer);
+            materializer = null;
+        }
+    }
+
+    /**
+     * Returns the client of the MongoDB async driver used by {@link MongoDbAsyncProducer}, creating it on first use. It connects to
+     * the same servers, with the same credentials, read preference, write concern and {@link MongoClientOptions} as the blocking
+     * {@link Mongo} connection.
+     *
+     * @throws IllegalArgumentException if the connection has options the async driver cannot honour
+     */
+    public synchronized com.mongodb.async.client.MongoClient getAsyncMongoConnection() {
+        if (asyncMongoConnection == null) {
+            MongoClientSettings.Builder settings = MongoClientSettings.builder()
+                    .codecRegistry(MongoClient.getDefaultCodecRegistry())
+                    .readPreference(mongoConnection.getReadPreference())
+                    .writeConcern(mongoConnection.getWriteConcern());
+            ClusterSettings.Builder cluster = ClusterSettings.builder().hosts(mongoConnection.getServerAddressList());
+            // with a single seed, the async driver would otherwise connect to that server only rather than discover the replica set
+            if (mongoConnection.getServerAddressList().size() > 1 || mongoConnection.getAllAddress().size() > 1) {
+                cluster.mode(ClusterConnectionMode.MULTIPLE);
+            }
+            if (mongoConnection instanceof MongoClient) {
+                MongoClient client = (MongoClient) mongoConnection;
+                settings.credentialList(client.getCredentialsList());
+                applyClientOptions(client.getMongoClientOptions(), settings, cluster);
+            }
+            settings.clusterSettings(cluster.build());
+            asyncMongoConnection = MongoClients.create(settings.build());
+        }
+        return asyncMongoConnection;
+    }
+
+    /**
+     * The async driver needs the Netty stream factory, which this component does not ship, to connect with SSL.
+     */
+    private static void validateAsyncClientOptions(MongoClientOptions options) throws IllegalArgumentException {
+        if (options.isSslEnabled()) {
+            throw new IllegalArgumentException("The asyncDriver option does not support SSL connections, set asyncDriver=false to connect "
+                    + "to this MongoClient");
+        }
+    }
+
+    private static void applyClientOptions(MongoClientOptions options, MongoClientSettings.Builder settings, ClusterSettings.Builder cluster) {
+        validateAsyncClientOptions(options);
+        SocketFactory socketFactory = options.getSocketFactory();
+        if (socketFactory != null && socketFactory != SocketFactory.getDefault() && socketFactory != SSLSocketFactory.getDefault()) {
+            throw new IllegalArgumentException("The asyncDriver option does not support a custom socketFactory on the MongoClient: " + socketFactory);
+        }
+
+        if (options.getRequiredReplicaSetName() != null) {
+            cluster.mode(ClusterConnectionMode.MULTIPLE).requiredReplicaSetName(options.getRequiredReplicaSetName());
+        }
+        cluster.serverSelectionTimeout(options.getServerSelectionTimeout(), TimeUnit.MILLISECONDS).description(options.getDescription());
+
+        settings.sslSettings(SslSettings.builder()
+                .enabled(options.isSslEnabled())
+                .invalidHostNameAllowed(options.isSslInvalidHostNameAllowed())
+                .build());
+        settings.socketSettings(SocketSettings.builder()
+                .connectTimeout(options.getConnectTimeout(), TimeUnit.MILLISECONDS)
+                .readTimeout(options.getSocketTimeout(), TimeUnit.MILLISECONDS)
+                .keepAlive(options.isSocketKeepAlive())
+                .build());
+        settings.heartbeatSocketSettings(SocketSettings.builder()
+                .connectTimeout(options.getHeartbeatConnectTimeout(), TimeUnit.MILLISECONDS)
+                .readTimeout(options.getHeartbeatSocketTimeout(), TimeUnit.MILLISECONDS)
+                .keepAlive(options.isSocketKeepAlive())
+                .build());
+        settings.connectionPoolSettings(ConnectionPoolSettings.builder()
+                .maxSize(options.getConnectionsPerHost())
+                .minSize(options.getMinConnectionsPerHost())
+                .maxWaitQueueSize(options.getConnectionsPerHost() * options.getThreadsAllowedToBlockForConnectionMultiplier())
+                .maxWaitTime(options.getMaxWaitTime(), TimeUnit.MILLISECONDS)
+                .maxConnectionIdleTime(options.getMaxConnectionIdleTime(), TimeUnit.MILLISECONDS)
+                .maxConnectionLifeTime(options.getMaxConnectionLifeTime(), TimeUnit.MILLISECONDS)
+                .build());
+        settings.serverSettings(ServerSettings.builder()
+                .heartbeatFrequency(options.getHeartbeatFrequency(), TimeUnit.MILLISECONDS)
+                .minHeartbeatFrequency(options.getMinHeartbeatFrequency(), TimeUnit.MILLISECONDS)
+                .build());
+        if (options.getReadConcern() != null) {
+            settings.readConcern(options.getReadConcern());
+        }
+    }
+
+    /**
+     * Returns the lookup cache enabled by {@link #getCacheSize()}, creating it on first use. It is shared by all the producers of the
+     * endpoint, so that the writes of any of them invalidate the lookups of the others.
+     *
+     * @return the cache, or null if disabled
+     */
+    public synchronized MongoDbQueryCache getQueryCache() {
+        if (queryCache == null && cacheSize > 0) {
+            queryCache = new MongoDbQueryCache(cacheSize, cacheTtl);
+        }
+        return queryCache;
+    }
+
+    /**
+     * Returns the materializer of the materialize operation, creating and starting it on first use. It is shared by all the producers
+     * of the endpoint, so that the writes of any of them count towards {@link #getMaterializeWriteThreshold()}.
+     */
+    public synchronized MongoDbMaterializer getMaterializer() throws Exception {
+        if (materializer == null) {
+            materializer = new MongoDbMaterializer(this, materializeInterval, materializeWriteThreshold);
+            ServiceHelper.startService(materializer);
+        }
+        return materializer;
+    }
+
     public Exchange createMongoDbExchange(DBObject dbObj) {
+        Exchange exchange = createConsumedExchange(dbObj);
+        exchange.getIn().setHeader(MongoDbConstants.FROM_TAILABLE, true);
+        return exchange;
+    }
+
+    /**
+     * Creates the exchange of a batch of documents received by a tailable consumer, whose body is the list of the documents.
+     */
+    public Exchange createMongoDbExchange(List<DBObject> dbObjs) {
         Exchange exchange = super.createExchange();
         Message message = exchange.getIn();
         message.setHeader(MongoDbConstants.DATABASE, database);
         message.setHeader(MongoDbConstants.COLLECTION, collection);
         message.setHeader(MongoDbConstants.FROM_TAILABLE, true);
-        message.setBody(dbObj);
+        List<Object> body = new ArrayList<Object>(dbObjs.size());
+        for (DBObject dbObj : dbObjs) {
+            try {
+                body.add(rawBson ? MongoDbRawBsonDecoderFactory.toByteArray(dbObj) : dbObj);
+            } catch (IOException e) {
+                throw new RuntimeCamelException(e);
+            }
+        }
+        message.setBody(body);
+        exchange.setProperty(Exchange.BATCH_SIZE, body.size());
+        return exchange;
+    }
+
+    /**
+     * Creates the exchange of a document received by a consumer.
+     */
+    public Exchange createConsumedExchange(DBObject dbObj) {
+        Exchange exchange = super.createExchange();
+        Message message = exchange.getIn();
+        message.setHeader(MongoDbConstants.DATABASE, database);
+        message.setHeader(MongoDbConstants.COLLECTION, collection);
+        if (rawBson) {
+            try {
+                message.setBody(MongoDbRawBsonDecoderFactory.toByteArray(dbObj));
+            } catch (IOException e) {
+                throw new RuntimeCamelException(e);
+            }
+        } else {
+            message.setBody(dbObj);
+        }
         return exchange;
     }
 
@@ -630,11 +946,658 @@ public class MongoDbEndpoint extends DefaultEndpoint {
 
     /**
      * Convert the output of the producer to the selected type : "DBObjectList", "DBObject" or "DBCursor".
-     * DBObjectList or DBObject applies to findAll.
-     * DBCursor applies to all other operations.
+     * DBObjectList applies to findAll, DBCursor to findAll, aggregate and distinct, which then stream their results.
+     * DBObject applies to all other operations.
      * @param outputType
      */
     public void setOutputType(MongoDbOutputType outputType) {
         this.outputType = outputType;
     }
+
+    public long getBatchWindow() {
+        return batchWindow;
+    }
+
+    /**
+     * Enables coalescing of single-document inserts coming from concurrent exchanges. Inserts are parked for up to this many
+     * milliseconds, or until {@link #setMaxBatchSize(int) maxBatchSize} of them are pending, and then written with a single
+     * multi-document insert. Every exchange is completed asynchronously with its own OID or error, so callers are not blocked
+     * during the window. Disabled (0) by default.
+     * 
+     * @param batchWindow the batching window in milliseconds
+     */
+    public void setBatchWindow(long batchWindow) {
+        this.batchWindow = batchWindow;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Maximum number of documents sent to MongoDB in a single batch, read from it in a single page by a polling consumer, or delivered
+     * in a single exchange by a tailable consumer with maxBatchDelay. Default value is 1000.
+     * 
+     * @param maxBatchSize the maximum batch size
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public boolean isAsyncDriver() {
+        return asyncDriver;
+    }
+
+    /**
+     * Use a non-blocking producer built on the MongoDB async driver. Operations are issued without holding a Camel thread for the
+     * duration of the round trip, and the exchange is completed from the driver's I/O thread, so throughput scales with the number
+     * of in-flight requests rather than with the number of threads. Operations without an async variant fall back to the blocking driver.
+     * 
+     * @param asyncDriver true or false
+     */
+    public void setAsyncDriver(boolean asyncDriver) {
+        this.asyncDriver = asyncDriver;
+    }
+
+    public boolean isStreamingInsert() {
+        return streamingInsert;
+    }
+
+    /**
+     * Makes the insert operation read the body as a stream of newline-delimited JSON or concatenated BSON documents, e.g. a file.
+     * Documents are read one at a time and inserted in chunks of {@link #setMaxBatchSize(int) maxBatchSize} documents, so the
+     * payload is never fully loaded in memory. The number of inserted documents and the byte offsets of the documents that failed
+     * are returned as headers.
+     * 
+     * @param streamingInsert true or false
+     */
+    public void setStreamingInsert(boolean streamingInsert) {
+        this.streamingInsert = streamingInsert;
+    }
+
+    public boolean isRawBson() {
+        return rawBson;
+    }
+
+    /**
+     * Moves documents as raw BSON instead of DBObjects. The insert operation accepts byte[] or ByteBuffer bodies (or a List of
+     * them), and the find operations and the tailable consumer emit byte[] bodies. Documents are copied as bytes and never decoded
+     * nor re-encoded, which saves most of the CPU spent per document on routes that just move data around.
+     * 
+     * @param rawBson true or false
+     */
+    public void setRawBson(boolean rawBson) {
+        this.rawBson = rawBson;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Number of documents fetched per round trip by the findAll operation, unless overridden by the CamelMongoDbBatchSize header.
+     * With outputType=DBCursor the documents are streamed and this is the number of documents held in memory at a time. By default
+     * the server decides.
+     * 
+     * @param batchSize the batch size
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public MongoDbTotalSizeStrategy getTotalSizeStrategy() {
+        return totalSizeStrategy;
+    }
+
+    /**
+     * How findAll computes the CamelMongoDbResultTotalSize header: "none" skips the count, "exact" counts the matching documents on
+     * every request, "estimated" returns the size of the whole collection from its metadata and "cachedExact" caches exact counts per
+     * collection and query for totalSizeCacheTtl milliseconds. Can be overridden per exchange with the CamelMongoDbTotalSizeStrategy
+     * header.
+     * 
+     * @param totalSizeStrategy the strategy, "exact" by default
+     */
+    public void setTotalSizeStrategy(MongoDbTotalSizeStrategy totalSizeStrategy) {
+        this.totalSizeStrategy = totalSizeStrategy;
+    }
+
+    public long getTotalSizeCacheTtl() {
+        return totalSizeCacheTtl;
+    }
+
+    /**
+     * Time to live, in milliseconds, of the counts cached by the "cachedExact" total size strategy.
+     * 
+     * @param totalSizeCacheTtl the time to live, 60000 by default
+     */
+    public void setTotalSizeCacheTtl(long totalSizeCacheTtl) {
+        this.totalSizeCacheTtl = totalSizeCacheTtl;
+    }
+
+    public String getPaginationKey() {
+        return paginationKey;
+    }
+
+    /**
+     * Enables keyset pagination for findAll on the given (indexed) field, instead of skipping documents. Pages are sorted on the key
+     * (ascending unless CamelMongoDbSortBy sorts it descending, with _id as tie breaker), their size is given by CamelMongoDbLimit, and a
+     * full page comes with a CamelMongoDbContinuationToken header to send back to get the next page. Can be set per exchange with
+     * the CamelMongoDbPaginationKey header.
+     * 
+     * @param paginationKey the name of the field to paginate on
+     */
+    public void setPaginationKey(String paginationKey) {
+        this.paginationKey = paginationKey;
+    }
+
+    public int getParallelScan() {
+        return parallelScan;
+    }
+
+    /**
+     * Number of cursors findAll reads the collection with. When greater than 1, the documents matching the query are split into as
+     * many ranges of parallelScanKey, read concurrently and merged in no particular order. Cannot be combined with sort, skip nor limit.
+     * With outputType=DBCursor the documents are streamed as they arrive.
+     * 
+     * @param parallelScan the number of cursors, disabled by default
+     */
+    public void setParallelScan(int parallelScan) {
+        this.parallelScan = parallelScan;
+    }
+
+    public String getParallelScanKey() {
+        return parallelScanKey;
+    }
+
+    /**
+     * Field the parallel scan splits the collection on. It should be indexed, so that the split points are read from the index with
+     * the splitVector command and each range is read through the index; otherwise the split points are sampled.
+     * 
+     * @param parallelScanKey the field name, _id by default
+     */
+    public void setParallelScanKey(String parallelScanKey) {
+        this.parallelScanKey = parallelScanKey;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Maximum number of findById and findOneByQuery results cached by the producer, keyed by collection, query, fields filter and
+     * sort. The least recently used entries are evicted first. The insert, save, update, remove and bulkWrite operations of the same
+     * producer invalidate the entries of the collection they write to; writes from elsewhere are only seen once the entries expire.
+     * 
+     * @param cacheSize the maximum number of entries, 0 (the default) disables the cache
+     */
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    public long getCacheTtl() {
+        return cacheTtl;
+    }
+
+    /**
+     * Time to live, in milliseconds, of the entries of the lookup cache enabled by cacheSize.
+     * 
+     * @param cacheTtl the time to live, 60000 by default, 0 for no expiry
+     */
+    public void setCacheTtl(long cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public long getFindByIdBatchWindow() {
+        return findByIdBatchWindow;
+    }
+
+    /**
+     * Coalesces the findById lookups of concurrent exchanges into a single query on the _id field. A lookup waits at most this number of
+     * milliseconds, or until maxBatchSize lookups are pending, and each exchange then receives its own document, or null. Lookups with
+     * a CamelMongoDbFieldsFilter header are not coalesced.
+     * 
+     * @param findByIdBatchWindow the batch window in milliseconds, 0 (the default) disables coalescing
+     */
+    public void setFindByIdBatchWindow(long findByIdBatchWindow) {
+        this.findByIdBatchWindow = findByIdBatchWindow;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Query template used by the count, findAll, findOneByQuery and remove operations instead of the message body. It is parsed once
+     * when the endpoint starts. Parameters are written :name in place of JSON values, e.g. {"status": :status, "ts": {"$gt": :since}},
+     * and are bound to the header, or else the exchange property, of the same name.
+     * 
+     * @param query the JSON query template
+     */
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    public MongoDbQueryTemplate getQueryTemplate() {
+        return queryTemplate;
+    }
+
+    public int getParsedQueryCacheSize() {
+        return parsedQueryCacheSize;
+    }
+
+    /**
+     * Maximum number of JSON strings, received as query bodies or as CamelMongoDbFieldsFilter and CamelMongoDbSortBy headers, whose
+     * parsed form is cached by the producer, so that recurring queries are not parsed over and over.
+     * 
+     * @param parsedQueryCacheSize the maximum number of entries, 0 (the default) disables the cache
+     */
+    public void setParsedQueryCacheSize(int parsedQueryCacheSize) {
+        this.parsedQueryCacheSize = parsedQueryCacheSize;
+    }
+
+    public boolean isAllowDiskUse() {
+        return allowDiskUse;
+    }
+
+    /**
+     * Lets the stages of the aggregate operation write temporary files, so they are not bound by the server's memory limit. Can be
+     * overridden per exchange with the CamelMongoDbAllowDiskUse header.
+     * 
+     * @param allowDiskUse true or false
+     */
+    public void setAllowDiskUse(boolean allowDiskUse) {
+        this.allowDiskUse = allowDiskUse;
+    }
+
+    public long getMaxTimeMS() {
+        return maxTimeMS;
+    }
+
+    /**
+     * Maximum time, in milliseconds, the server may spend running the aggregate operation. Can be overridden per exchange with the
+     * CamelMongoDbMaxTimeMS header.
+     * 
+     * @param maxTimeMS the time limit, 0 (the default) for none
+     */
+    public void setMaxTimeMS(long maxTimeMS) {
+        this.maxTimeMS = maxTimeMS;
+    }
+
+    public String getMaterializedCollection() {
+        return materializedCollection;
+    }
+
+    /**
+     * Collection the materialize operation writes the result of its pipeline to. Can be overridden per exchange with the
+     * CamelMongoDbMaterializedCollection header.
+     * 
+     * @param materializedCollection the name of the target collection, in the database of the source collection
+     */
+    public void setMaterializedCollection(String materializedCollection) {
+        this.materializedCollection = materializedCollection;
+    }
+
+    public long getMaterializeInterval() {
+        return materializeInterval;
+    }
+
+    /**
+     * Interval, in milliseconds, at which the collections materialized by the producer are refreshed in the background by re-running
+     * their pipeline.
+     * 
+     * @param materializeInterval the interval, 0 (the default) disables scheduled refreshes
+     */
+    public void setMaterializeInterval(long materializeInterval) {
+        this.materializeInterval = materializeInterval;
+    }
+
+    public long getMaterializeWriteThreshold() {
+        return materializeWriteThreshold;
+    }
+
+    /**
+     * Number of write operations to a source collection, through this producer, after which the collections materialized from it are
+     * refreshed in the background.
+     * 
+     * @param materializeWriteThreshold the number of write operations, 0 (the default) disables write triggered refreshes
+     */
+    public void setMaterializeWriteThreshold(long materializeWriteThreshold) {
+        this.materializeWriteThreshold = materializeWriteThreshold;
+    }
+
+    public long getLeaseTime() {
+        return leaseTime;
+    }
+
+    /**
+     * Time, in milliseconds, a document claimed by a workQueue consumer is leased to it. The lease is renewed every third of it while
+     * the document is processed, and expires if the consumer dies, making the document available to other consumers. Also the lease time of the partitions
+     * of a partitioned tailable consumer, renewed every third of it.
+     * 
+     * @param leaseTime the lease time, 60000 by default
+     */
+    public void setLeaseTime(long leaseTime) {
+        this.leaseTime = leaseTime;
+    }
+
+    public int getConcurrentConsumers() {
+        return concurrentConsumers;
+    }
+
+    /**
+     * Number of threads a workQueue consumer claims and processes documents with. For a tailable consumer, more than 1 processes the
+     * documents concurrently on that many threads, while a single thread reads the cursor; the persisted position of the consumer
+     * then only covers the documents processed without gap, so that a restart never skips one.
+     * 
+     * @param concurrentConsumers the number of threads, 1 by default
+     */
+    public void setConcurrentConsumers(int concurrentConsumers) {
+        this.concurrentConsumers = concurrentConsumers;
+    }
+
+    public long getWorkQueueIdleDelay() {
+        return workQueueIdleDelay;
+    }
+
+    /**
+     * Time, in milliseconds, a workQueue consumer thread waits before trying again when no document is available.
+     * 
+     * @param workQueueIdleDelay the delay, 1000 by default
+     */
+    public void setWorkQueueIdleDelay(long workQueueIdleDelay) {
+        this.workQueueIdleDelay = workQueueIdleDelay;
+    }
+
+    public long getWorkQueueRetryDelay() {
+        return workQueueRetryDelay;
+    }
+
+    /**
+     * Time, in milliseconds, a document whose processing failed stays leased before a workQueue consumer retries it, so that a
+     * document failing consistently does not keep the consumers busy.
+     * 
+     * @param workQueueRetryDelay the delay, 10000 by default
+     */
+    public void setWorkQueueRetryDelay(long workQueueRetryDelay) {
+        this.workQueueRetryDelay = workQueueRetryDelay;
+    }
+
+    public int getWorkQueueMaxAttempts() {
+        return workQueueMaxAttempts;
+    }
+
+    /**
+     * Number of failed attempts after which a workQueue consumer parks a document, by setting its failed field, instead of retrying
+     * it. Parked documents are left in the collection for inspection and never claimed again.
+     * 
+     * @param workQueueMaxAttempts the number of attempts, 0 (never park) by default
+     */
+    public void setWorkQueueMaxAttempts(int workQueueMaxAttempts) {
+        this.workQueueMaxAttempts = workQueueMaxAttempts;
+    }
+
+    public MapReduceCommand.OutputType getMapReduceOutputType() {
+        return mapReduceOutputType;
+    }
+
+    /**
+     * Where the mapReduce operation writes its results: INLINE returns them as the body, REPLACE, MERGE and REDUCE write them to
+     * mapReduceOutputCollection, respectively replacing its content, overwriting the documents with the same key, or reducing them
+     * with the new results. Can be overridden per exchange with the CamelMongoDbMapReduceOutputType header.
+     * 
+     * @param mapReduceOutputType the output type, INLINE by default
+     */
+    public void setMapReduceOutputType(MapReduceCommand.OutputType mapReduceOutputType) {
+        this.mapReduceOutputType = mapReduceOutputType;
+    }
+
+    public String getMapReduceOutputCollection() {
+        return mapReduceOutputCollection;
+    }
+
+    /**
+     * Collection the mapReduce operation writes to, unless its output type is INLINE. Can be overridden per exchange with the
+     * CamelMongoDbMapReduceOutputCollection header.
+     * 
+     * @param mapReduceOutputCollection the name of the output collection
+     */
+    public void setMapReduceOutputCollection(String mapReduceOutputCollection) {
+        this.mapReduceOutputCollection = mapReduceOutputCollection;
+    }
+
+    public String getMapReduceIncrementalField() {
+        return mapReduceIncrementalField;
+    }
+
+    /**
+     * Makes the mapReduce operation incremental: each run only processes the documents whose value of this (increasing, indexed)
+     * field is greater than the highest value processed by the previous run. That watermark is persisted in the
+     * {@link MongoDbTailTrackingConfig#DEFAULT_COLLECTION} collection of the endpoint's database under persistentId, which is
+     * compulsory. The output type must then be INLINE, MERGE or REDUCE.
+     * <p/>
+     * The field must increase in commit order, like a value assigned by a single writer: a document committed with a value at or
+     * below the watermark of a run that already happened, e.g. a timestamp taken by a concurrent writer before that run, is never
+     * processed.
+     * 
+     * @param mapReduceIncrementalField the field name
+     */
+    public void setMapReduceIncrementalField(String mapReduceIncrementalField) {
+        this.mapReduceIncrementalField = mapReduceIncrementalField;
+    }
+
+    public long getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
+    /**
+     * Enables the instrumentation of the producer: the latency of every operation is recorded, and the operations taking at least
+     * this many milliseconds are captured as slow queries, with the shape of their query (its values masked). The statistics and the
+     * most recent slow queries are exposed through JMX. Disabled with 0, the default.
+     * 
+     * @param slowQueryThreshold the threshold in milliseconds
+     */
+    public void setSlowQueryThreshold(long slowQueryThreshold) {
+        this.slowQueryThreshold = slowQueryThreshold;
+    }
+
+    public double getExplainSampleRate() {
+        return explainSampleRate;
+    }
+
+    /**
+     * Fraction of the slow queries (findById, findOneByQuery, findAll, count and distinct) that are explained in the background, to
+     * record their winning plan and the number of keys and documents they examined. 0.1 by default, 0 never explains.
+     * 
+     * @param explainSampleRate a rate between 0 and 1
+     */
+    public void setExplainSampleRate(double explainSampleRate) {
+        this.explainSampleRate = explainSampleRate;
+    }
+
+    public boolean isSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * Also logs the slow queries at WARN level to the {@link MongoDbInstrumentation#SLOW_QUERY_LOG} category.
+     * 
+     * @param slowQueryLog true to log the slow queries
+     */
+    public void setSlowQueryLog(boolean slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    public int getTailingQueueSize() {
+        return tailingQueueSize;
+    }
+
+    /**
+     * Number of documents a tailable consumer with concurrentConsumers greater than 1 reads ahead of its processing threads. The
+     * cursor is not read further while the queue is full.
+     * 
+     * @param tailingQueueSize the capacity of the queue, 1000 by default
+     */
+    public void setTailingQueueSize(int tailingQueueSize) {
+        this.tailingQueueSize = tailingQueueSize;
+    }
+
+    public int getPersistEveryN() {
+        return persistEveryN;
+    }
+
+    /**
+     * With persistent tail tracking, also persists the position of the consumer every this many documents, rather than only when the
+     * cursor is regenerated or the consumer stops, to shorten the replay after a crash. The position is written in the background, so
+     * the consumer never waits for it. Disabled with 0, the default.
+     * 
+     * @param persistEveryN the number of documents between two checkpoints
+     */
+    public void setPersistEveryN(int persistEveryN) {
+        this.persistEveryN = persistEveryN;
+    }
+
+    public long getPersistInterval() {
+        return persistInterval;
+    }
+
+    /**
+     * With persistent tail tracking, also persists the position of the consumer in the background every this many milliseconds, if
+     * it moved. Disabled with 0, the default.
+     * 
+     * @param persistInterval the interval in milliseconds
+     */
+    public void setPersistInterval(long persistInterval) {
+        this.persistInterval = persistInterval;
+    }
+
+    public String getChangeStreamPipeline() {
+        return changeStreamPipeline;
+    }
+
+    /**
+     * Aggregation stages a changeStream consumer appends to its $changeStream stage, as a JSON array, e.g.
+     * <tt>[{"$match": {"operationType": {"$in": ["insert", "update"]}}}, {"$project": {"fullDocument": 1}}]</tt>, so that the server
+     * only sends the relevant changes, with the relevant fields. The _id of the events must be kept, as it is their resume token.
+     * 
+     * @param changeStreamPipeline the stages, as JSON
+     */
+    public void setChangeStreamPipeline(String changeStreamPipeline) {
+        this.changeStreamPipeline = changeStreamPipeline;
+    }
+
+    public String getFullDocument() {
+        return fullDocument;
+    }
+
+    /**
+     * The fullDocument option of the change stream: updateLookup adds the current version of the document to update events, which
+     * otherwise only carry the changed fields.
+     * 
+     * @param fullDocument default or updateLookup
+     */
+    public void setFullDocument(String fullDocument) {
+        this.fullDocument = fullDocument;
+    }
+
+    public long getPollDelay() {
+        return pollDelay;
+    }
+
+    /**
+     * Delay, in milliseconds, between two polls of a polling consumer that found documents.
+     * 
+     * @param pollDelay the delay, 500 by default
+     */
+    public void setPollDelay(long pollDelay) {
+        this.pollDelay = pollDelay;
+    }
+
+    public long getMaxPollDelay() {
+        return maxPollDelay;
+    }
+
+    /**
+     * Upper bound, in milliseconds, of the delay between two polls of a polling consumer, which doubles after every poll finding
+     * nothing, starting from pollDelay.
+     * 
+     * @param maxPollDelay the maximum delay, 30000 by default
+     */
+    public void setMaxPollDelay(long maxPollDelay) {
+        this.maxPollDelay = maxPollDelay;
+    }
+
+    public String getOplogNamespacePattern() {
+        return oplogNamespacePattern;
+    }
+
+    /**
+     * Regular expression of the namespaces (database.collection) an oplog consumer observes, e.g. <tt>^shop\.(orders|customers)$</tt>.
+     * By default, the endpoint's collection, or every collection of its database when no collection is set, along with their create,
+     * drop and rename commands. The pattern is matched against the raw namespace of the entries, <tt>database.$cmd</tt> for commands.
+     * 
+     * @param oplogNamespacePattern the regular expression, evaluated by the server
+     */
+    public void setOplogNamespacePattern(String oplogNamespacePattern) {
+        this.oplogNamespacePattern = oplogNamespacePattern;
+    }
+
+    public long getMaxBatchDelay() {
+        return maxBatchDelay;
+    }
+
+    /**
+     * Makes a tailable consumer deliver the documents in batches: each exchange holds the list of up to maxBatchSize documents read
+     * within this many milliseconds after the first one, and the tracked position advances once per batch. As the cursor is polled
+     * for more documents with the server's await time, a batch may be delivered up to about a second after the delay. Disabled with
+     * 0, the default, where every document is an exchange.
+     * 
+     * @param maxBatchDelay the delay in milliseconds
+     */
+    public void setMaxBatchDelay(long maxBatchDelay) {
+        this.maxBatchDelay = maxBatchDelay;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Splits the documents of a tailable consumer into this many partitions, by the hash of their partitionKey, each tailed by its own
+     * thread with its own position, tracked under persistentId-p&lt;partition&gt;. Every partition reads the whole collection but only
+     * processes its own documents, so this scales the processing, not the reads. The consumer processes the partition set by
+     * partitionIndex, or else leases partitions among all the consumers with the same persistentId, on any node, for leaseTime
+     * milliseconds. Disabled with 1, the default.
+     * 
+     * @param partitions the number of partitions
+     */
+    public void setPartitions(int partitions) {
+        this.partitions = partitions;
+    }
+
+    public int getPartitionIndex() {
+        return partitionIndex;
+    }
+
+    /**
+     * The partition, from 0 to partitions - 1, a partitioned tailable consumer processes. When not set, partitions are assigned
+     * automatically through leases.
+     * 
+     * @param partitionIndex the partition, -1 by default
+     */
+    public void setPartitionIndex(int partitionIndex) {
+        this.partitionIndex = partitionIndex;
+    }
+
+    public String getPartitionKey() {
+        return partitionKey;
+    }
+
+    /**
+     * Field whose hash assigns the documents to the partitions of a partitioned tailable consumer.
+     * 
+     * @param partitionKey the field name, _id by default
+     */
+    public void setPartitionKey(String partitionKey) {
+        this.partitionKey = partitionKey;
+    }
 }
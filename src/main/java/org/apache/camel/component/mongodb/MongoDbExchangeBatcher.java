@@ -0,0 +1,227 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.DBCollection;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.Exchange;
+import org.apache.camel.spi.ExecutorServiceManager;
+import org.apache.camel.support.ServiceSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parks requests coming from concurrent exchanges for up to {@link MongoDbEndpoint#getBatchWindow()} milliseconds, or until
+ * {@link MongoDbEndpoint#getMaxBatchSize()} requests are pending, and then hands them to {@link #processBatch(DBCollection, List)}
+ * grouped by target collection, so that a single round trip serves all of them.
+ * <p/>
+ * Callers are never blocked: the batch is executed on a dedicated flusher thread, and the {@link AsyncCallback} of every waiting
+ * exchange is then invoked from a completion pool, so that the rest of their routes run in parallel rather than one after the other
+ * on the flusher thread.
+ *
+ * @param <T> the type of the per-exchange payload
+ */
+public abstract class MongoDbExchangeBatcher<T> extends ServiceSupport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MongoDbExchangeBatcher.class);
+
+    protected final MongoDbProducer producer;
+    private final long batchWindow;
+    private final int maxBatchSize;
+    private final Object lock = new Object();
+    private List<PendingRequest<T>> pending = new ArrayList<PendingRequest<T>>();
+    private ScheduledExecutorService executor;
+    private ExecutorService completionExecutor;
+
+    public MongoDbExchangeBatcher(MongoDbProducer producer, long batchWindow, int maxBatchSize) {
+        this.producer = producer;
+        this.batchWindow = batchWindow;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * A request waiting for the next flush.
+     */
+    public static final class PendingRequest<T> {
+        public final Exchange exchange;
+        public final AsyncCallback callback;
+        public final DBCollection collection;
+        public final T payload;
+
+        PendingRequest(Exchange exchange, AsyncCallback callback, DBCollection collection, T payload) {
+            this.exchange = exchange;
+            this.callback = callback;
+            this.collection = collection;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * Queues the request. The exchange will be completed asynchronously, so the caller must return false to the routing engine.
+     *
+     * @throws CamelMongoDbException if the batcher is not started
+     */
+    public void submit(Exchange exchange, AsyncCallback callback, DBCollection collection, T payload) throws CamelMongoDbException {
+        List<PendingRequest<T>> full = null;
+        boolean first;
+        ScheduledExecutorService flusher;
+        synchronized (lock) {
+            flusher = executor;
+            if (flusher == null) {
+                throw new CamelMongoDbException("Cannot batch the request of exchange " + exchange.getExchangeId() + " as the batcher is stopped");
+            }
+            pending.add(new PendingRequest<T>(exchange, callback, collection, payload));
+            first = pending.size() == 1;
+            if (pending.size() >= maxBatchSize) {
+                full = drain();
+            }
+        }
+
+        if (full != null) {
+            flusher.execute(new FlushTask(full));
+        } else if (first) {
+            flusher.schedule(new FlushTask(null), batchWindow, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Executes the batch against the given collection. Implementations must set the outcome (result or exception) on every exchange
+     * in the batch; the callbacks are invoked afterwards by this class.
+     */
+    protected abstract void processBatch(DBCollection dbCol, List<PendingRequest<T>> batch) throws Exception;
+
+    @Override
+    protected void doStart() throws Exception {
+        ExecutorServiceManager manager = producer.getEndpoint().getCamelContext().getExecutorServiceManager();
+        completionExecutor = manager.newDefaultThreadPool(this, "MongoDbBatchCompletion[" + producer.getEndpoint().getEndpointKey() + "]");
+        ScheduledExecutorService flusher = manager.newSingleThreadScheduledExecutor(this,
+                "MongoDbBatcher[" + producer.getEndpoint().getEndpointKey() + "]");
+        synchronized (lock) {
+            executor = flusher;
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        ExecutorServiceManager manager = producer.getEndpoint().getCamelContext().getExecutorServiceManager();
+        // from now on submit rejects new requests, and do not leave any pending exchange hanging
+        List<PendingRequest<T>> remaining;
+        ScheduledExecutorService flusher;
+        synchronized (lock) {
+            remaining = drain();
+            flusher = executor;
+            executor = null;
+        }
+        if (flusher != null) {
+            manager.shutdownGraceful(flusher);
+        }
+        flush(remaining);
+        if (completionExecutor != null) {
+            manager.shutdownGraceful(completionExecutor);
+            completionExecutor = null;
+        }
+    }
+
+    private List<PendingRequest<T>> drain() {
+        List<PendingRequest<T>> answer = pending;
+        pending = new ArrayList<PendingRequest<T>>();
+        return answer;
+    }
+
+    private void flush(List<PendingRequest<T>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // group by collection, as dynamicity may route exchanges of the same endpoint to different collections
+        Map<DBCollection, List<PendingRequest<T>>> byCollection = new LinkedHashMap<DBCollection, List<PendingRequest<T>>>();
+        for (PendingRequest<T> request : batch) {
+            List<PendingRequest<T>> group = byCollection.get(request.collection);
+            if (group == null) {
+                group = new ArrayList<PendingRequest<T>>();
+                byCollection.put(request.collection, group);
+            }
+            group.add(request);
+        }
+
+        for (Map.Entry<DBCollection, List<PendingRequest<T>>> entry : byCollection.entrySet()) {
+            List<PendingRequest<T>> group = entry.getValue();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Flushing batch of {} requests to collection {}", group.size(), entry.getKey().getFullName());
+            }
+            try {
+                processBatch(entry.getKey(), group);
+            } catch (Throwable t) {
+                for (PendingRequest<T> request : group) {
+                    request.exchange.setException(MongoDbComponent.wrapInCamelMongoDbException(t));
+                }
+            }
+            for (PendingRequest<T> request : group) {
+                complete(request.callback);
+            }
+        }
+    }
+
+    private void complete(final AsyncCallback callback) {
+        ExecutorService completions = completionExecutor;
+        if (completions == null) {
+            callback.done(false);
+            return;
+        }
+        try {
+            completions.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.done(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the pool is shutting down, complete on this thread rather than leaving the exchange hanging
+            callback.done(false);
+        }
+    }
+
+    private final class FlushTask implements Runnable {
+        private final List<PendingRequest<T>> batch;
+
+        private FlushTask(List<PendingRequest<T>> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void run() {
+            List<PendingRequest<T>> toFlush = batch;
+            if (toFlush == null) {
+                // the batch window elapsed, take whatever is pending at this point
+                synchronized (lock) {
+                    toFlush = drain();
+                }
+            }
+            flush(toFlush);
+        }
+    }
+}
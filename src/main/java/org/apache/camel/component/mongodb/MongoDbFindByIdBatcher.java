@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+/**
+ * Coalesces the findById lookups of concurrent exchanges into a single <tt>find({_id: {$in: [...]}})</tt> query, and answers every
+ * exchange with its own document, or null if it does not exist.
+ */
+public class MongoDbFindByIdBatcher extends MongoDbExchangeBatcher<Object> {
+
+    public MongoDbFindByIdBatcher(MongoDbProducer producer, long batchWindow, int maxBatchSize) {
+        super(producer, batchWindow, maxBatchSize);
+    }
+
+    @Override
+    protected void processBatch(DBCollection dbCol, List<PendingRequest<Object>> batch) throws Exception {
+        Set<Object> ids = new LinkedHashSet<Object>();
+        for (PendingRequest<Object> request : batch) {
+            ids.add(request.payload);
+        }
+
+        Map<Object, DBObject> documents = new HashMap<Object, DBObject>(ids.size() * 2);
+        DBCursor cursor = dbCol.find(new BasicDBObject("_id", new BasicDBObject("$in", ids)));
+        try {
+            if (((MongoDbEndpoint) producer.getEndpoint()).isRawBson()) {
+                cursor.setDecoderFactory(MongoDbRawBsonDecoderFactory.INSTANCE);
+            }
+            while (cursor.hasNext()) {
+                DBObject document = cursor.next();
+                documents.put(normalize(document.get("_id")), document);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Map<DBObject, Boolean> answered = new IdentityHashMap<DBObject, Boolean>();
+        for (PendingRequest<Object> request : batch) {
+            DBObject document = documents.get(normalize(request.payload));
+            // exchanges looking up the same id must not share a mutable document
+            if (document instanceof BasicDBObject && answered.put(document, Boolean.TRUE) != null) {
+                document = (DBObject) ((BasicDBObject) document).copy();
+            }
+            try {
+                producer.completeFindById(request.exchange, document);
+            } catch (Exception e) {
+                request.exchange.setException(MongoDbComponent.wrapInCamelMongoDbException(e));
+            }
+        }
+    }
+
+    /**
+     * The server matches numbers by value whatever their type, so must the ids of the exchanges and of the documents.
+     */
+    private static Object normalize(Object id) {
+        if (id instanceof Number) {
+            Number number = (Number) id;
+            if (number.doubleValue() == number.longValue()) {
+                return number.longValue();
+            }
+            return number.doubleValue();
+        }
+        return id;
+    }
+}
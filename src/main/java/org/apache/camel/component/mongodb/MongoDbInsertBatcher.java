@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.mongodb.BulkWriteError;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
+
+/**
+ * Coalesces single-document inserts from concurrent exchanges into one multi-document insert.
+ * <p/>
+ * The batch is sent as an unordered bulk insert, so that the failure of one document (e.g. a duplicate key) neither prevents the
+ * others from being inserted nor hides which exchange it belonged to: every exchange is completed with its own OID or its own error.
+ */
+public class MongoDbInsertBatcher extends MongoDbExchangeBatcher<DBObject> {
+
+    public MongoDbInsertBatcher(MongoDbProducer producer, long batchWindow, int maxBatchSize) {
+        super(producer, batchWindow, maxBatchSize);
+    }
+
+    @Override
+    protected void processBatch(DBCollection dbCol, List<PendingRequest<DBObject>> batch) throws Exception {
+        List<DBObject> documents = new ArrayList<DBObject>(batch.size());
+        for (PendingRequest<DBObject> request : batch) {
+            documents.add(request.payload);
+        }
+        Map<Integer, BulkWriteError> errors = producer.insertUnordered(dbCol, documents, null);
+        boolean acknowledged = dbCol.getWriteConcern().isAcknowledged();
+
+        for (int i = 0; i < batch.size(); i++) {
+            PendingRequest<DBObject> request = batch.get(i);
+            BulkWriteError error = errors.get(i);
+            if (error != null) {
+                request.exchange.setException(new CamelMongoDbException("MongoDB operation = insert, batched insert failed with code "
+                        + error.getCode() + ": " + error.getMessage()));
+            } else {
+                WriteResult result = acknowledged ? new WriteResult(1, false, null) : WriteResult.unacknowledged();
+                producer.completeInsert(request.exchange, request.payload, result);
+            }
+        }
+    }
+
+}
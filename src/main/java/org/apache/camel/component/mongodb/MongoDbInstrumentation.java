@@ -0,0 +1,324 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.CommandResult;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Rejectable;
+import org.apache.camel.ThreadPoolRejectedPolicy;
+import org.apache.camel.builder.ThreadPoolProfileBuilder;
+import org.apache.camel.spi.ThreadPoolProfile;
+import org.apache.camel.support.ServiceSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the latency of the operations of a producer, and captures the slow ones: their query shape (the query with its values
+ * masked) and, for a sample of them, the plan the server chose, as reported by the explain command. A COLLSCAN plan, or many more
+ * documents examined than returned, usually points to a missing index.
+ * <p/>
+ * Slow queries are kept in memory (the most recent ones) for JMX, and can also be logged to the
+ * <tt>org.apache.camel.component.mongodb.slowQueries</tt> category. Explains run on a background thread, so they never delay an
+ * exchange: when it lags behind, the oldest pending explains are skipped.
+ */
+public class MongoDbInstrumentation extends ServiceSupport {
+
+    public static final String SLOW_QUERY_LOG = "org.apache.camel.component.mongodb.slowQueries";
+
+    private static final Logger LOG = LoggerFactory.getLogger(MongoDbInstrumentation.class);
+    private static final Logger SLOW_LOG = LoggerFactory.getLogger(SLOW_QUERY_LOG);
+    private static final int MAX_SLOW_QUERIES = 100;
+    private static final String MASK = "?";
+    private static final Set<MongoDbOperation> EXPLAINABLE_OPERATIONS = EnumSet.of(MongoDbOperation.findById, MongoDbOperation.findOneByQuery,
+            MongoDbOperation.findAll, MongoDbOperation.count, MongoDbOperation.distinct);
+    // explains waiting for the background thread, beyond which the oldest are skipped
+    private static final int MAX_PENDING_EXPLAINS = 100;
+
+    private final MongoDbProducer producer;
+    private final long slowThresholdNanos;
+    private final double explainSampleRate;
+    private final boolean log;
+    private final ConcurrentMap<MongoDbOperation, OperationStats> stats = new ConcurrentHashMap<MongoDbOperation, OperationStats>();
+    private final Deque<String> slowQueries = new ConcurrentLinkedDeque<String>();
+    private final AtomicInteger slowQueryCount = new AtomicInteger();
+    private ExecutorService executor;
+
+    private static final class OperationStats {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong slow = new AtomicLong();
+
+        private void record(long nanos, boolean isSlow) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+            if (isSlow) {
+                slow.incrementAndGet();
+            }
+        }
+    }
+
+    public MongoDbInstrumentation(MongoDbProducer producer, long slowThreshold, double explainSampleRate, boolean log) {
+        this.producer = producer;
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThreshold);
+        this.explainSampleRate = explainSampleRate;
+        this.log = log;
+    }
+
+    /**
+     * @return true if the query of the operation can be explained, in which case {@link #record(MongoDbOperation, Exchange,
+     *         DBCollection, long)} must be given its collection
+     */
+    public static boolean isExplainable(MongoDbOperation operation) {
+        return EXPLAINABLE_OPERATIONS.contains(operation);
+    }
+
+    /**
+     * Records an operation that took the given time. The query is read from the exchange, which must not have been altered by the
+     * operation beyond setting its result.
+     *
+     * @param dbCol the collection of the operation, as resolved by the producer, may be null if the operation is not explainable
+     */
+    public void record(MongoDbOperation operation, Exchange exchange, DBCollection dbCol, long nanos) {
+        boolean isSlow = nanos >= slowThresholdNanos;
+        OperationStats operationStats = stats.get(operation);
+        if (operationStats == null) {
+            OperationStats created = new OperationStats();
+            operationStats = stats.putIfAbsent(operation, created);
+            if (operationStats == null) {
+                operationStats = created;
+            }
+        }
+        operationStats.record(nanos, isSlow);
+        if (!isSlow) {
+            return;
+        }
+
+        try {
+            DBObject query = dbCol == null ? null : explainableQuery(operation, exchange);
+            String description = operation + (dbCol == null ? "" : " on " + dbCol.getFullName()) + " took "
+                    + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms" + (query == null ? "" : ", shape " + JSON.serialize(shape(query)));
+            if (query != null && executor != null && ThreadLocalRandom.current().nextDouble() < explainSampleRate) {
+                executor.execute(new Explain(description, operation, dbCol, query, exchange.getIn().getHeader(MongoDbConstants.SORT_BY)));
+            } else {
+                slowQuery(description);
+            }
+        } catch (Exception e) {
+            LOG.debug("Could not capture slow " + operation, e);
+        }
+    }
+
+    private DBObject explainableQuery(MongoDbOperation operation, Exchange exchange) throws Exception {
+        switch (operation) {
+        case findById:
+            return new BasicDBObject("_id", exchange.getIn().getBody());
+        case findOneByQuery:
+        case findAll:
+        case count:
+        case distinct:
+            DBObject query = exchange.getIn().getBody() == null ? null : producer.getQueryBody(exchange, false);
+            return query == null ? new BasicDBObject() : query;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * @return the query with all its values masked, so that the queries differing only by their values look the same
+     */
+    static Object shape(Object value) {
+        if (value instanceof BasicDBList) {
+            return MASK;
+        } else if (value instanceof DBObject) {
+            BasicDBObject answer = new BasicDBObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) ((DBObject) value).toMap()).entrySet()) {
+                String key = (String) entry.getKey();
+                // logical operators hold sub-queries
+                if ("$and".equals(key) || "$or".equals(key) || "$nor".equals(key)) {
+                    BasicDBList clauses = new BasicDBList();
+                    for (Object clause : (List<?>) entry.getValue()) {
+                        clauses.add(shape(clause));
+                    }
+                    answer.put(key, clauses);
+                } else {
+                    answer.put(key, shape(entry.getValue()));
+                }
+            }
+            return answer;
+        }
+        return MASK;
+    }
+
+    private void slowQuery(String description) {
+        slowQueryCount.incrementAndGet();
+        slowQueries.addFirst(description);
+        while (slowQueries.size() > MAX_SLOW_QUERIES) {
+            slowQueries.pollLast();
+        }
+        if (log) {
+            SLOW_LOG.warn("Slow MongoDB operation: {}", description);
+        }
+    }
+
+    private final class Explain implements Runnable, Rejectable {
+        private final String description;
+        private final MongoDbOperation operation;
+        private final DBCollection dbCol;
+        private final DBObject query;
+        private final Object sort;
+
+        private Explain(String description, MongoDbOperation operation, DBCollection dbCol, DBObject query, Object sort) {
+            this.description = description;
+            this.operation = operation;
+            this.dbCol = dbCol;
+            this.query = query;
+            this.sort = sort;
+        }
+
+        @Override
+        public void run() {
+            String plan;
+            try {
+                DBObject explained;
+                if (operation == MongoDbOperation.count) {
+                    explained = new BasicDBObject("count", dbCol.getName()).append("query", query);
+                } else if (operation == MongoDbOperation.distinct) {
+                    // the plan of the equivalent find is what matters for the index choice
+                    explained = new BasicDBObject("find", dbCol.getName()).append("filter", query);
+                } else {
+                    explained = new BasicDBObject("find", dbCol.getName()).append("filter", query);
+                    if (sort instanceof DBObject) {
+                        explained.put("sort", sort);
+                    } else if (sort instanceof String) {
+                        explained.put("sort", JSON.parse((String) sort));
+                    }
+                }
+                CommandResult result = dbCol.getDB().command(new BasicDBObject("explain", explained).append("verbosity", "executionStats"));
+                result.throwOnError();
+                DBObject winningPlan = (DBObject) ((DBObject) result.get("queryPlanner")).get("winningPlan");
+                DBObject executionStats = (DBObject) result.get("executionStats");
+                plan = ", plan " + stages(winningPlan) + ", keys examined " + executionStats.get("totalKeysExamined")
+                        + ", docs examined " + executionStats.get("totalDocsExamined") + ", returned " + executionStats.get("nReturned");
+            } catch (Exception e) {
+                plan = ", explain failed: " + e.getMessage();
+            }
+            slowQuery(description + plan);
+        }
+
+        @Override
+        public void reject() {
+            // the explain thread is lagging behind, keep the slow query without its plan
+            slowQuery(description + ", explain skipped");
+        }
+    }
+
+    /**
+     * @return the stages of the plan, from the root, e.g. FETCH &lt; IXSCAN { status: 1 }
+     */
+    private static String stages(DBObject plan) {
+        StringBuilder answer = new StringBuilder();
+        DBObject stage = plan;
+        while (stage != null) {
+            if (answer.length() > 0) {
+                answer.append(" < ");
+            }
+            answer.append(stage.get("stage"));
+            if (stage.get("keyPattern") != null) {
+                answer.append(' ').append(JSON.serialize(stage.get("keyPattern")));
+            }
+            stage = (DBObject) stage.get("inputStage");
+        }
+        return answer.toString();
+    }
+
+    public long getSlowQueryCount() {
+        return slowQueryCount.get();
+    }
+
+    /**
+     * @return the most recent slow queries, most recent first
+     */
+    public List<String> getSlowQueries() {
+        return new ArrayList<String>(slowQueries);
+    }
+
+    /**
+     * @return for each operation: count, mean and max latency, number of slow calls
+     */
+    public List<String> getOperationStats() {
+        List<String> answer = new ArrayList<String>();
+        for (Map.Entry<MongoDbOperation, OperationStats> entry : stats.entrySet()) {
+            OperationStats operationStats = entry.getValue();
+            long count = operationStats.count.get();
+            answer.add(entry.getKey() + ": count " + count
+                    + ", mean " + (count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(operationStats.totalNanos.get() / count)) + "us"
+                    + ", max " + TimeUnit.NANOSECONDS.toMicros(operationStats.maxNanos.get()) + "us"
+                    + ", slow " + operationStats.slow.get());
+        }
+        return answer;
+    }
+
+    public void reset() {
+        stats.clear();
+        slowQueries.clear();
+        slowQueryCount.set(0);
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        if (explainSampleRate > 0) {
+            // never let the explains slow down the exchanges, as the default CallerRuns policy would
+            ThreadPoolProfile profile = new ThreadPoolProfileBuilder("MongoDbExplain").poolSize(1).maxPoolSize(1)
+                    .maxQueueSize(MAX_PENDING_EXPLAINS).rejectedPolicy(ThreadPoolRejectedPolicy.DiscardOldest).build();
+            executor = producer.getEndpoint().getCamelContext().getExecutorServiceManager()
+                    .newThreadPool(this, "MongoDbExplain[" + producer.getEndpoint().getEndpointKey() + "]", profile);
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        if (executor != null) {
+            producer.getEndpoint().getCamelContext().getExecutorServiceManager().shutdownNow(executor);
+            executor = null;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+
+/**
+ * Keyset (range based) pagination for the findAll operation. Instead of making the server walk and discard the skipped documents,
+ * each page starts right after the last document of the previous one, through a range condition on the sort key. With an index on
+ * the key, every page then costs the same however deep the caller goes.
+ * <p/>
+ * The key does not have to be unique: when it is not _id, _id is used as a tie breaker, both in the sort and in the range.
+ * The continuation token is the JSON (extended mode) of the key values of the last document of the page.
+ */
+public final class MongoDbKeysetPagination {
+
+    private static final String ID = "_id";
+
+    private final String key;
+    private final int direction;
+
+    public MongoDbKeysetPagination(String key, int direction) {
+        this.key = key;
+        this.direction = direction < 0 ? -1 : 1;
+    }
+
+    /**
+     * Creates the pagination for the given key, taking the direction from the sort requested by the caller, if it sorts on the key.
+     */
+    public static MongoDbKeysetPagination forKey(String key, DBObject sortBy) {
+        int direction = 1;
+        if (sortBy != null && sortBy.get(key) instanceof Number) {
+            direction = ((Number) sortBy.get(key)).intValue();
+        }
+        return new MongoDbKeysetPagination(key, direction);
+    }
+
+    /**
+     * @return the sort the pages must be read in
+     */
+    public DBObject sort() {
+        BasicDBObject answer = new BasicDBObject(key, direction);
+        if (!ID.equals(key)) {
+            answer.append(ID, direction);
+        }
+        return answer;
+    }
+
+    /**
+     * Restricts the query to the documents following the position encoded in the continuation token.
+     *
+     * @param query the query of the caller, may be null
+     * @param continuationToken the token returned with the previous page, null for the first page
+     */
+    public DBObject restrict(DBObject query, String continuationToken) throws CamelMongoDbException {
+        if (continuationToken == null) {
+            return query;
+        }
+
+        DBObject position;
+        try {
+            position = (DBObject) JSON.parse(continuationToken);
+        } catch (Exception e) {
+            throw new CamelMongoDbException("Invalid continuation token: " + continuationToken, e);
+        }
+        if (!position.containsField(key) || !ID.equals(key) && !position.containsField(ID)) {
+            throw new CamelMongoDbException("Continuation token " + continuationToken + " does not match pagination key " + key);
+        }
+
+        String operator = direction > 0 ? "$gt" : "$lt";
+        DBObject range;
+        if (ID.equals(key)) {
+            range = new BasicDBObject(ID, new BasicDBObject(operator, position.get(ID)));
+        } else {
+            // (key > k) or (key == k and _id > id)
+            Object keyValue = position.get(key);
+            BasicDBList or = new BasicDBList();
+            or.add(new BasicDBObject(key, new BasicDBObject(operator, keyValue)));
+            or.add(new BasicDBObject(key, keyValue).append(ID, new BasicDBObject(operator, position.get(ID))));
+            range = new BasicDBObject("$or", or);
+        }
+
+        if (query == null || query.keySet().isEmpty()) {
+            return range;
+        }
+        BasicDBList and = new BasicDBList();
+        and.add(query);
+        and.add(range);
+        return new BasicDBObject("$and", and);
+    }
+
+    /**
+     * @return the continuation token pointing right after the given document
+     */
+    public String continuationToken(DBObject last) throws CamelMongoDbException {
+        BasicDBObject position = new BasicDBObject();
+        Object keyValue = valueOf(last, key);
+        if (keyValue == null && !containsPath(last, key)) {
+            throw new CamelMongoDbException("Pagination key " + key + " is missing from the returned documents, check the fields filter");
+        }
+        position.put(key, keyValue);
+        if (!ID.equals(key)) {
+            // the tie breaker, without which restrict would reject the token
+            if (!last.containsField(ID)) {
+                throw new CamelMongoDbException("_id is missing from the returned documents, it must not be excluded by the fields filter"
+                        + " with pagination key " + key);
+            }
+            position.put(ID, last.get(ID));
+        }
+        return JSON.serialize(position);
+    }
+
+    private static Object valueOf(DBObject document, String path) {
+        Object current = document;
+        for (String part : path.split("\\.")) {
+            if (!(current instanceof DBObject)) {
+                return null;
+            }
+            current = ((DBObject) current).get(part);
+        }
+        return current;
+    }
+
+    private static boolean containsPath(DBObject document, String path) {
+        List<String> parts = Arrays.asList(path.split("\\."));
+        DBObject current = document;
+        for (int i = 0; i < parts.size(); i++) {
+            if (current == null || !current.containsField(parts.get(i))) {
+                return false;
+            }
+            Object next = current.get(parts.get(i));
+            if (i < parts.size() - 1) {
+                current = next instanceof DBObject ? (DBObject) next : null;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBObject;
+import com.mongodb.Cursor;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+import org.apache.camel.support.ServiceSupport;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Materializes the result of aggregation pipelines into collections, for the materialize operation, and keeps them fresh.
+ * <p/>
+ * The pipeline writes into a temporary collection with $out, which gets the secondary indexes of the target collection and is then
+ * renamed over it, so that readers always see a complete and indexed result, either the previous or the new one. Every
+ * materialization is remembered and refreshed in the background every {@link MongoDbEndpoint#getMaterializeInterval()}
+ * milliseconds, and/or once {@link MongoDbEndpoint#getMaterializeWriteThreshold()} successful write operations went to its source
+ * collection through any producer of the endpoint.
+ */
+public class MongoDbMaterializer extends ServiceSupport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MongoDbMaterializer.class);
+    private static final String ID_INDEX = "_id_";
+
+    private final MongoDbEndpoint endpoint;
+    private final long interval;
+    private final long writeThreshold;
+    private final ConcurrentMap<String, Materialization> materializations = new ConcurrentHashMap<String, Materialization>();
+    private final ConcurrentMap<String, AtomicLong> writes = new ConcurrentHashMap<String, AtomicLong>();
+    private ScheduledExecutorService executor;
+
+    private final class Materialization implements Runnable {
+        private final DBCollection source;
+        private final List<DBObject> pipeline;
+        private final DBCollection target;
+        private final AggregationOptions options;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Materialization(DBCollection source, List<DBObject> pipeline, DBCollection target, AggregationOptions options) {
+            this.source = source;
+            this.pipeline = pipeline;
+            this.target = target;
+            this.options = options;
+        }
+
+        @Override
+        public void run() {
+            // refreshes triggered while one is running are redundant
+            if (!refreshing.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                execute(this);
+            } catch (Exception e) {
+                LOG.warn("Could not refresh materialized collection " + target.getFullName() + ", will retry on next trigger", e);
+            } finally {
+                refreshing.set(false);
+            }
+        }
+    }
+
+    public MongoDbMaterializer(MongoDbEndpoint endpoint, long interval, long writeThreshold) {
+        this.endpoint = endpoint;
+        this.interval = interval;
+        this.writeThreshold = writeThreshold;
+    }
+
+    /**
+     * Materializes the pipeline into the target collection, and registers it for refreshes.
+     *
+     * @return the number of documents in the target collection
+     */
+    public long materialize(DBCollection source, List<DBObject> pipeline, DBCollection target, AggregationOptions options) {
+        Materialization materialization = new Materialization(source, pipeline, target, options);
+        long answer = execute(materialization);
+        Materialization previous = materializations.put(target.getFullName(), materialization);
+        if (previous == null && interval > 0) {
+            executor.scheduleWithFixedDelay(new Refresh(target.getFullName()), interval, interval, TimeUnit.MILLISECONDS);
+        }
+        return answer;
+    }
+
+    /**
+     * Accounts for a write operation to the collection, which triggers the refresh of the collections materialized from it once the
+     * threshold is reached.
+     */
+    public void onWrite(String collection) {
+        if (writeThreshold <= 0 || executor == null) {
+            return;
+        }
+        AtomicLong count = writes.get(collection);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = writes.putIfAbsent(collection, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        if (count.incrementAndGet() >= writeThreshold) {
+            count.set(0);
+            for (Materialization materialization : materializations.values()) {
+                if (materialization.source.getFullName().equals(collection)) {
+                    executor.execute(materialization);
+                }
+            }
+        }
+    }
+
+    private long execute(Materialization materialization) {
+        DBCollection target = materialization.target;
+        String temporaryName = target.getName() + ".tmp." + new ObjectId();
+        List<DBObject> pipeline = new ArrayList<DBObject>(materialization.pipeline);
+        pipeline.add(new BasicDBObject("$out", temporaryName));
+
+        LOG.debug("Materializing into {} through {}", target.getFullName(), temporaryName);
+        DBCollection temporary = target.getDB().getCollection(temporaryName);
+        try {
+            Cursor cursor = materialization.source.aggregate(pipeline, materialization.options);
+            cursor.close();
+            copyIndexes(target, temporary);
+            temporary.rename(target.getName(), true);
+        } catch (RuntimeException e) {
+            try {
+                temporary.drop();
+            } catch (RuntimeException e2) {
+                LOG.warn("Could not drop temporary collection " + temporary.getFullName() + " after a failed materialization", e2);
+            }
+            throw e;
+        }
+        MongoDbQueryCache queryCache = endpoint.getQueryCache();
+        if (queryCache != null) {
+            queryCache.invalidate(target.getFullName());
+        }
+        return target.count();
+    }
+
+    /**
+     * Creates the secondary indexes of the target, if it exists, on the collection about to replace it, as the rename drops them with
+     * the target.
+     */
+    private static void copyIndexes(DBCollection target, DBCollection temporary) {
+        for (DBObject index : target.getIndexInfo()) {
+            if (ID_INDEX.equals(index.get("name"))) {
+                continue;
+            }
+            BasicDBObject options = new BasicDBObject();
+            for (String field : index.keySet()) {
+                if (!"key".equals(field) && !"v".equals(field) && !"ns".equals(field)) {
+                    options.put(field, index.get(field));
+                }
+            }
+            temporary.createIndex((DBObject) index.get("key"), options);
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        if (interval > 0 || writeThreshold > 0) {
+            executor = endpoint.getCamelContext().getExecutorServiceManager()
+                    .newSingleThreadScheduledExecutor(this, "MongoDbMaterializer[" + endpoint.getEndpointKey() + "]");
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        if (executor != null) {
+            endpoint.getCamelContext().getExecutorServiceManager().shutdownNow(executor);
+            executor = null;
+        }
+        materializations.clear();
+        writes.clear();
+    }
+
+    private final class Refresh implements Runnable {
+        private final String target;
+
+        private Refresh(String target) {
+            this.target = target;
+        }
+
+        @Override
+        public void run() {
+            // the latest definition of the target wins
+            Materialization materialization = materializations.get(target);
+            if (materialization != null) {
+                materialization.run();
+            }
+        }
+    }
+}
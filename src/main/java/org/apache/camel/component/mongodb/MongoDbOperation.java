@@ -22,19 +22,25 @@ public enum MongoDbOperation {
     findById,
     findOneByQuery,
     findAll,
-    // group,       // future operation
-    // mapReduce,   // future operation
+    distinct,
+    group,
+    mapReduce,
     
     // create/update operations
     insert,
     save, 
     update, 
+    findAndModify,
     
     // delete operations
     remove, 
+
+    // batched write operations
+    bulkWrite,
     
     // aggregate
     aggregate,
+    materialize,
     
     // others
     getDbStats, 
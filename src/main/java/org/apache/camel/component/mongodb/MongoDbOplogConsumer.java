@@ -0,0 +1,246 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.regex.Pattern;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.Bytes;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.impl.DefaultConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tails the oplog of a replica set member, <tt>local.oplog.rs</tt>, with a single cursor, and turns the operations on the observed
+ * namespaces into exchanges: the body is the oplog entry, with the DATABASE and COLLECTION headers of the namespace it applies to,
+ * and its kind (insert, update, delete or command) in the CamelMongoDbChangeOperationType header. For the create, drop and
+ * renameCollection commands, logged on the <tt>$cmd</tt> namespace of their database (of <tt>admin</tt> for a rename), the COLLECTION
+ * header is the collection they apply to.
+ * <p/>
+ * The namespaces are filtered on the server: the endpoint's collection if set, otherwise every collection of its database, along
+ * with the create, drop and rename commands of that collection or database, or the raw namespaces of the entries matching
+ * {@link MongoDbEndpoint#getOplogNamespacePattern()}. The <tt>ts</tt> of the last entry processed is tracked by a
+ * {@link MongoDbTailTrackingManager}, so with persistent tail tracking the consumer resumes where it left off. Without a persisted
+ * position, it starts at the end of the oplog.
+ */
+public class MongoDbOplogConsumer extends DefaultConsumer {
+
+    public static final String OPLOG_DB = "local";
+    public static final String OPLOG_COLLECTION = "oplog.rs";
+
+    private static final Logger LOG = LoggerFactory.getLogger(MongoDbOplogConsumer.class);
+    private static final String TS_FIELD = "ts";
+    private static final String COMMANDS = "$cmd";
+    private static final String RENAME_COLLECTION = "renameCollection";
+
+    private final MongoDbEndpoint endpoint;
+    private final DBCollection oplog;
+    private DBObject namespaceFilter;
+    private MongoDbTailTrackingManager tailTracking;
+    private ExecutorService executor;
+    private ScheduledExecutorService checkpointExecutor;
+    private volatile DBCursor cursor;
+    private volatile boolean keepRunning;
+
+    public MongoDbOplogConsumer(MongoDbEndpoint endpoint, Processor processor) {
+        super(endpoint, processor);
+        this.endpoint = endpoint;
+        this.oplog = endpoint.getDb().getSisterDB(OPLOG_DB).getCollection(OPLOG_COLLECTION);
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        if (!oplog.getDB().collectionExists(OPLOG_COLLECTION)) {
+            throw new CamelMongoDbException("No oplog found, the oplog consumer must connect to a replica set member");
+        }
+        String database = endpoint.getDatabase();
+        if (endpoint.getOplogNamespacePattern() != null) {
+            namespaceFilter = new BasicDBObject("ns", new BasicDBObject("$regex", endpoint.getOplogNamespacePattern()));
+        } else if (endpoint.getCollection() != null) {
+            String namespace = database + "." + endpoint.getCollection();
+            BasicDBList commands = new BasicDBList();
+            commands.add(new BasicDBObject("o.create", endpoint.getCollection()));
+            commands.add(new BasicDBObject("o.drop", endpoint.getCollection()));
+            BasicDBList namespaces = new BasicDBList();
+            namespaces.add(new BasicDBObject("ns", namespace));
+            namespaces.add(new BasicDBObject("ns", database + "." + COMMANDS).append("$or", commands));
+            namespaces.add(new BasicDBObject("ns", "admin." + COMMANDS).append("o." + RENAME_COLLECTION, namespace));
+            namespaceFilter = new BasicDBObject("$or", namespaces);
+        } else {
+            // the commands of the database, dropDatabase included, are logged on its own $cmd namespace, but renames on admin's
+            BasicDBList namespaces = new BasicDBList();
+            namespaces.add(new BasicDBObject("ns", new BasicDBObject("$regex", "^" + Pattern.quote(database + "."))));
+            namespaces.add(new BasicDBObject("ns", "admin." + COMMANDS).append("o." + RENAME_COLLECTION,
+                    new BasicDBObject("$regex", "^" + Pattern.quote(database + "."))));
+            namespaceFilter = new BasicDBObject("$or", namespaces);
+        }
+
+        tailTracking = new MongoDbTailTrackingManager(endpoint.getMongoConnection(), new MongoDbTailTrackingConfig(
+                endpoint.isPersistentTailTracking(), TS_FIELD, endpoint.getTailTrackDb() == null ? endpoint.getDatabase()
+                        : endpoint.getTailTrackDb(), endpoint.getTailTrackCollection(), endpoint.getTailTrackField(), endpoint.getPersistentId()));
+        tailTracking.initialize();
+        tailTracking.recoverFromStore();
+        if (tailTracking.lastVal == null) {
+            DBObject last = oplog.find().sort(new BasicDBObject("$natural", -1)).limit(1).one();
+            if (last != null) {
+                tailTracking.setLastVal(last);
+            }
+        }
+        if (endpoint.isPersistentTailTracking() && (endpoint.getPersistEveryN() > 0 || endpoint.getPersistInterval() > 0)) {
+            checkpointExecutor = endpoint.getCamelContext().getExecutorServiceManager()
+                    .newSingleThreadScheduledExecutor(this, endpoint.getEndpointUri() + "-checkpoint");
+            tailTracking.startCheckpointing(checkpointExecutor, endpoint.getPersistEveryN(), endpoint.getPersistInterval());
+        }
+
+        keepRunning = true;
+        executor = endpoint.getCamelContext().getExecutorServiceManager().newSingleThreadExecutor(this, endpoint.getEndpointUri());
+        executor.execute(new Tailer());
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        keepRunning = false;
+        // unblocks the tailer if it is waiting for more data
+        DBCursor current = cursor;
+        if (current != null) {
+            current.close();
+        }
+        if (executor != null) {
+            endpoint.getCamelContext().getExecutorServiceManager().shutdownGraceful(executor);
+            executor = null;
+        }
+        if (checkpointExecutor != null) {
+            endpoint.getCamelContext().getExecutorServiceManager().shutdownGraceful(checkpointExecutor);
+            checkpointExecutor = null;
+        }
+        if (tailTracking != null) {
+            tailTracking.persistToStore();
+        }
+        super.doStop();
+    }
+
+    /**
+     * Opens a tailable cursor over the entries of the observed namespaces after the last one processed, no-ops excluded.
+     */
+    protected DBCursor open() {
+        DBObject query = new BasicDBObject(namespaceFilter.toMap()).append("op", new BasicDBObject("$ne", "n"));
+        if (tailTracking.lastVal != null) {
+            query.put(TS_FIELD, new BasicDBObject("$gt", tailTracking.lastVal));
+        }
+        // OPLOGREPLAY lets the server find the starting point from ts without scanning the oplog
+        return oplog.find(query).addOption(Bytes.QUERYOPTION_TAILABLE).addOption(Bytes.QUERYOPTION_AWAITDATA)
+                .addOption(Bytes.QUERYOPTION_OPLOGREPLAY);
+    }
+
+    private void process(DBObject entry) {
+        Exchange exchange = endpoint.createConsumedExchange(entry);
+        String ns = namespace(entry);
+        int dot = ns.indexOf('.');
+        exchange.getIn().setHeader(MongoDbConstants.DATABASE, ns.substring(0, dot));
+        exchange.getIn().setHeader(MongoDbConstants.COLLECTION, ns.substring(dot + 1));
+        exchange.getIn().setHeader(MongoDbConstants.CHANGE_OPERATION_TYPE, operationType((String) entry.get("op")));
+        try {
+            getProcessor().process(exchange);
+        } catch (Exception e) {
+            exchange.setException(e);
+        }
+        if (exchange.getException() != null) {
+            getExceptionHandler().handleException("Error processing oplog entry " + entry.get(TS_FIELD), exchange, exchange.getException());
+        }
+        tailTracking.setLastVal(entry);
+    }
+
+    /**
+     * @return the namespace the entry applies to, which for the create, drop and renameCollection commands is the collection they
+     *         apply to rather than the $cmd namespace they are logged on
+     */
+    private static String namespace(DBObject entry) {
+        String ns = (String) entry.get("ns");
+        Object command = entry.get("o");
+        if (!"c".equals(entry.get("op")) || !ns.endsWith("." + COMMANDS) || !(command instanceof DBObject)) {
+            return ns;
+        }
+        DBObject o = (DBObject) command;
+        String database = ns.substring(0, ns.length() - COMMANDS.length() - 1);
+        if (o.get(RENAME_COLLECTION) instanceof String) {
+            return (String) o.get(RENAME_COLLECTION);
+        } else if (o.get("create") instanceof String) {
+            return database + "." + o.get("create");
+        } else if (o.get("drop") instanceof String) {
+            return database + "." + o.get("drop");
+        }
+        return ns;
+    }
+
+    private static String operationType(String op) {
+        if ("i".equals(op)) {
+            return "insert";
+        } else if ("u".equals(op)) {
+            return "update";
+        } else if ("d".equals(op)) {
+            return "delete";
+        } else if ("c".equals(op)) {
+            return "command";
+        }
+        return op;
+    }
+
+    private final class Tailer implements Runnable {
+        @Override
+        public void run() {
+            while (keepRunning && isRunAllowed()) {
+                try {
+                    cursor = open();
+                    while (keepRunning && cursor.hasNext()) {
+                        process(cursor.next());
+                    }
+                } catch (Exception e) {
+                    // closing the cursor is how a stop interrupts a blocked read
+                    if (keepRunning) {
+                        getExceptionHandler().handleException("Error tailing the oplog, the cursor will be regenerated after "
+                                + endpoint.getCursorRegenerationDelay() + "ms", e);
+                    }
+                } finally {
+                    if (cursor != null) {
+                        cursor.close();
+                    }
+                }
+
+                tailTracking.persistToStore();
+                if (keepRunning && endpoint.getCursorRegenerationDelay() > 0) {
+                    LOG.debug("Regenerating oplog cursor with ts: {}, waiting {}ms first", tailTracking.lastVal, endpoint.getCursorRegenerationDelay());
+                    try {
+                        Thread.sleep(endpoint.getCursorRegenerationDelay());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.CommandResult;
+import com.mongodb.Cursor;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.RuntimeCamelException;
+import org.apache.camel.support.SynchronizationAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parallel scan of a collection for the findAll operation. The collection is split into ranges of a key (_id by default) and each
+ * range is read on its own cursor, from its own thread, so a full read is served by several connections and server threads at once.
+ * The documents of all ranges are merged, in no particular order, into a bounded queue the route consumes through this iterator.
+ * <p/>
+ * Split points come from the splitVector command, which reads them from the index on the key. Where it is not available (no index
+ * on the key, insufficient privileges, mongos) the points are taken from a $sample of the collection. If both fail, the collection is
+ * read as a single range.
+ */
+public class MongoDbParallelScan extends SynchronizationAdapter implements Iterator<Object>, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MongoDbParallelScan.class);
+
+    private static final int SAMPLES_PER_RANGE = 20;
+    private static final long POLL_INTERVAL = 100;
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> queue;
+    private final boolean rawBson;
+    private final List<Future<?>> workers = new ArrayList<Future<?>>();
+    private int remainingWorkers;
+    // the range readers which have not exited yet, whether they completed, failed or were interrupted
+    private final AtomicInteger liveWorkers = new AtomicInteger();
+    private Object nextDocument;
+    private volatile boolean closed;
+
+    private static final class Failure {
+        private final Throwable cause;
+
+        private Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+
+    /**
+     * Starts reading the ranges on the executor.
+     *
+     * @param ranges the queries of the ranges, as returned by {@link #split(DBCollection, DBObject, String, int)}
+     * @param fieldFilter the projection, may be null
+     * @param batchSize the cursor batch size, 0 to let the server decide; also bounds the number of documents buffered per range
+     */
+    public MongoDbParallelScan(ExecutorService executor, final DBCollection dbCol, List<DBObject> ranges, final DBObject fieldFilter,
+                               final int batchSize, final boolean rawBson) {
+        this.queue = new ArrayBlockingQueue<Object>(ranges.size() * (batchSize > 0 ? batchSize : 100));
+        this.rawBson = rawBson;
+        this.remainingWorkers = ranges.size();
+        this.liveWorkers.set(ranges.size());
+        for (final DBObject range : ranges) {
+            workers.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    scan(dbCol, range, fieldFilter, batchSize);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Splits the documents matching the query into about n ranges of the key.
+     *
+     * @return the queries selecting each range
+     */
+    public static List<DBObject> split(DBCollection dbCol, DBObject query, String key, int n) {
+        List<Object> points = n > 1 ? splitPoints(dbCol, key, n) : new ArrayList<Object>();
+        List<DBObject> answer = new ArrayList<DBObject>(points.size() + 1);
+        for (int i = 0; i <= points.size(); i++) {
+            DBObject range = new BasicDBObject();
+            if (i == 0 && !points.isEmpty()) {
+                // also matches the documents lacking the key, which sort before any value
+                range.put(key, new BasicDBObject("$not", new BasicDBObject("$gte", points.get(0))));
+            } else if (i > 0) {
+                BasicDBObject bounds = new BasicDBObject("$gte", points.get(i - 1));
+                if (i < points.size()) {
+                    bounds.append("$lt", points.get(i));
+                }
+                range.put(key, bounds);
+            }
+            answer.add(and(query, range));
+        }
+        return answer;
+    }
+
+    private static DBObject and(DBObject query, DBObject range) {
+        if (query == null || query.keySet().isEmpty()) {
+            return range;
+        } else if (range.keySet().isEmpty()) {
+            return query;
+        }
+        BasicDBList and = new BasicDBList();
+        and.add(query);
+        and.add(range);
+        return new BasicDBObject("$and", and);
+    }
+
+    private static List<Object> splitPoints(DBCollection dbCol, String key, int n) {
+        List<Object> candidates;
+        try {
+            candidates = splitVector(dbCol, key, n);
+        } catch (Exception e) {
+            LOG.debug("splitVector unavailable on {}, sampling split points instead: {}", dbCol.getFullName(), e.getMessage());
+            try {
+                candidates = sample(dbCol, key, n);
+            } catch (Exception e2) {
+                LOG.warn("Could not split {} on {}, scanning it with a single cursor: {}", new Object[]{dbCol.getFullName(), key, e2.getMessage()});
+                return new ArrayList<Object>();
+            }
+        }
+
+        // keep n - 1 evenly spaced distinct points
+        List<Object> answer = new ArrayList<Object>(n - 1);
+        for (int i = 1; i < n && !candidates.isEmpty(); i++) {
+            Object point = candidates.get(Math.min(candidates.size() - 1, i * candidates.size() / n));
+            if (answer.isEmpty() || !answer.get(answer.size() - 1).equals(point)) {
+                answer.add(point);
+            }
+        }
+        return answer;
+    }
+
+    private static List<Object> splitVector(DBCollection dbCol, String key, int n) {
+        Number size = (Number) dbCol.getStats().get("size");
+        long maxChunkSizeBytes = Math.max(1, (size == null ? 0 : size.longValue()) / n);
+        DBObject command = new BasicDBObject("splitVector", dbCol.getFullName())
+                .append("keyPattern", new BasicDBObject(key, 1))
+                .append("maxChunkSizeBytes", maxChunkSizeBytes);
+        CommandResult result = dbCol.getDB().command(command);
+        result.throwOnError();
+
+        List<Object> answer = new ArrayList<Object>();
+        for (Object splitKey : (List<?>) result.get("splitKeys")) {
+            answer.add(((DBObject) splitKey).get(key));
+        }
+        return answer;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> sample(DBCollection dbCol, String key, int n) {
+        List<DBObject> pipeline = Arrays.<DBObject>asList(
+                new BasicDBObject("$sample", new BasicDBObject("size", n * SAMPLES_PER_RANGE)),
+                new BasicDBObject("$match", new BasicDBObject(key, new BasicDBObject("$exists", true))),
+                new BasicDBObject("$sort", new BasicDBObject(key, 1)),
+                new BasicDBObject("$project", new BasicDBObject("k", "$" + key)));
+        Cursor cursor = dbCol.aggregate(pipeline, AggregationOptions.builder().outputMode(AggregationOptions.OutputMode.CURSOR).build());
+        List<Object> answer = new ArrayList<Object>();
+        try {
+            while (cursor.hasNext()) {
+                answer.add(cursor.next().get("k"));
+            }
+        } finally {
+            cursor.close();
+        }
+        return answer;
+    }
+
+    private void scan(DBCollection dbCol, DBObject range, DBObject fieldFilter, int batchSize) {
+        DBCursor cursor = null;
+        try {
+            cursor = dbCol.find(range, fieldFilter);
+            if (batchSize > 0) {
+                cursor.batchSize(batchSize);
+            }
+            if (rawBson) {
+                cursor.setDecoderFactory(MongoDbRawBsonDecoderFactory.INSTANCE);
+            }
+            while (!closed && cursor.hasNext()) {
+                put(cursor.next());
+            }
+            put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            try {
+                put(new Failure(t));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            liveWorkers.decrementAndGet();
+        }
+    }
+
+    private void put(Object element) throws InterruptedException {
+        while (!closed) {
+            if (queue.offer(element, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (nextDocument == null && remainingWorkers > 0 && !closed) {
+            Object element;
+            try {
+                element = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new RuntimeCamelException("Interrupted while waiting for the parallel scan", e);
+            }
+            if (element == null) {
+                // readers enqueue their last element before exiting, so once none is left an empty queue is final
+                if (liveWorkers.get() == 0 && queue.isEmpty()) {
+                    close();
+                    throw new RuntimeCamelException(new CamelMongoDbException("The parallel scan stopped before reading "
+                            + remainingWorkers + " of its ranges to the end"));
+                }
+            } else if (element == END) {
+                remainingWorkers--;
+            } else if (element instanceof Failure) {
+                close();
+                throw new RuntimeCamelException(MongoDbComponent.wrapInCamelMongoDbException(((Failure) element).cause));
+            } else {
+                nextDocument = element;
+            }
+        }
+        return nextDocument != null;
+    }
+
+    @Override
+    public Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        DBObject document = (DBObject) nextDocument;
+        nextDocument = null;
+        if (!rawBson) {
+            return document;
+        }
+        try {
+            return MongoDbRawBsonDecoderFactory.toByteArray(document);
+        } catch (IOException e) {
+            throw new RuntimeCamelException(e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    /**
+     * Stops the range readers, which close their cursors.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            for (Future<?> worker : workers) {
+                worker.cancel(true);
+            }
+            queue.clear();
+        }
+    }
+
+    @Override
+    public void onDone(Exchange exchange) {
+        close();
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spreads the partitions of a partitioned tailable consumer over all the consumers of the same persistentId, whatever the node they
+ * run on, through leases stored in the {@link #COLLECTION} collection of the tail tracking database.
+ * <p/>
+ * Every run heartbeats the consumer, renews the leases it holds, and then converges towards its fair share of the partitions, that
+ * is the number of partitions divided by the number of live consumers: surplus partitions are released for the consumers that
+ * joined, and free or expired ones are claimed. A partition whose consumer died is taken over once its lease expires, from the
+ * position persisted for it, so its last documents may be processed twice.
+ */
+public class MongoDbPartitionLeases implements Runnable {
+
+    public static final String COLLECTION = "camelPartitionLeases";
+
+    private static final Logger LOG = LoggerFactory.getLogger(MongoDbPartitionLeases.class);
+    private static final String GROUP_FIELD = "group";
+    private static final String MEMBER_FIELD = "member";
+
+    private final MongoDbTailableCursorConsumer consumer;
+    private final DBCollection leases;
+    private final String group;
+    private final String owner;
+    private final int partitions;
+    private final long leaseTime;
+    private final TreeSet<Integer> owned = new TreeSet<Integer>();
+
+    public MongoDbPartitionLeases(MongoDbTailableCursorConsumer consumer, DBCollection leases, String group, String owner, int partitions,
+            long leaseTime) {
+        this.consumer = consumer;
+        this.leases = leases;
+        this.group = group;
+        this.owner = owner;
+        this.partitions = partitions;
+        this.leaseTime = leaseTime;
+    }
+
+    /**
+     * Creates the lease documents of the partitions which do not have one yet.
+     */
+    public void initialize() {
+        for (int partition = 0; partition < partitions; partition++) {
+            leases.update(new BasicDBObject("_id", partitionId(partition)),
+                    new BasicDBObject("$setOnInsert", new BasicDBObject(GROUP_FIELD, group)), true, false);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            rebalance();
+        } catch (Exception e) {
+            LOG.warn("Could not renew the partition leases of " + group + ", will retry", e);
+        }
+    }
+
+    protected synchronized void rebalance() throws Exception {
+        Date now = new Date();
+        Date until = new Date(now.getTime() + leaseTime);
+        leases.update(new BasicDBObject("_id", memberId()), new BasicDBObject("$set", new BasicDBObject(GROUP_FIELD, group)
+                .append(MEMBER_FIELD, true).append(MongoDbWorkQueueConsumer.LEASE_UNTIL_FIELD, until)), true, false);
+        long members = Math.max(1, leases.count(new BasicDBObject(GROUP_FIELD, group).append(MEMBER_FIELD, true)
+                .append(MongoDbWorkQueueConsumer.LEASE_UNTIL_FIELD, new BasicDBObject("$gt", now))));
+        int fairShare = (int) ((partitions + members - 1) / members);
+
+        for (Iterator<Integer> it = owned.iterator(); it.hasNext();) {
+            int partition = it.next();
+            DBObject renewal = new BasicDBObject("$set", new BasicDBObject(MongoDbWorkQueueConsumer.LEASE_UNTIL_FIELD, until));
+            if (update(ownedBy(partition), renewal) == 0) {
+                LOG.warn("Lost the lease of partition {} of {}", partition, group);
+                it.remove();
+                consumer.stopPartition(partition, true);
+            }
+        }
+        while (owned.size() > fairShare) {
+            int partition = owned.pollLast();
+            LOG.debug("Releasing partition {} of {} for the other consumers", partition, group);
+            consumer.stopPartition(partition);
+            release(partition);
+        }
+
+        for (int partition = 0; partition < partitions && owned.size() < fairShare; partition++) {
+            if (owned.contains(partition)) {
+                continue;
+            }
+            BasicDBList available = new BasicDBList();
+            available.add(new BasicDBObject(MongoDbWorkQueueConsumer.OWNER_FIELD, null));
+            available.add(new BasicDBObject(MongoDbWorkQueueConsumer.LEASE_UNTIL_FIELD, new BasicDBObject("$lt", now)));
+            DBObject claim = new BasicDBObject("$set", new BasicDBObject(MongoDbWorkQueueConsumer.OWNER_FIELD, owner)
+                    .append(MongoDbWorkQueueConsumer.LEASE_UNTIL_FIELD, until));
+            if (update(new BasicDBObject("_id", partitionId(partition)).append("$or", available), claim) == 1) {
+                LOG.debug("Claimed partition {} of {}", partition, group);
+                try {
+                    consumer.startPartition(partition);
+                } catch (Exception e) {
+                    release(partition);
+                    throw e;
+                }
+                owned.add(partition);
+            }
+        }
+    }
+
+    /**
+     * Releases the leases of the partitions, which must have been stopped, and leaves the group.
+     */
+    public synchronized void releaseAll() {
+        for (int partition : owned) {
+            release(partition);
+        }
+        owned.clear();
+        leases.remove(new BasicDBObject("_id", memberId()));
+    }
+
+    private void release(int partition) {
+        update(ownedBy(partition), new BasicDBObject("$unset", new BasicDBObject(MongoDbWorkQueueConsumer.OWNER_FIELD, "")
+                .append(MongoDbWorkQueueConsumer.LEASE_UNTIL_FIELD, "")));
+    }
+
+    /**
+     * @return the number of lease documents updated, which must be acknowledged whatever the write concern of the endpoint
+     */
+    private int update(DBObject query, DBObject update) {
+        return leases.update(query, update, false, false, WriteConcern.ACKNOWLEDGED).getN();
+    }
+
+    private DBObject ownedBy(int partition) {
+        return new BasicDBObject("_id", partitionId(partition)).append(MongoDbWorkQueueConsumer.OWNER_FIELD, owner);
+    }
+
+    private String partitionId(int partition) {
+        return group + "/partition/" + partition;
+    }
+
+    private String memberId() {
+        return group + "/member/" + owner;
+    }
+}
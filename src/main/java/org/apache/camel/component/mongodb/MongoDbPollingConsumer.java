@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import java.util.ArrayDeque;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.impl.ScheduledBatchPollingConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls a collection of any kind for the documents whose tailTrackIncreasingField is greater than the highest value seen so far (the
+ * watermark), in increasing order of that field and one page of {@link MongoDbEndpoint#getMaxBatchSize()} documents at a time, with
+ * the endpoint's query, if any, as an additional filter. Each page is delivered as a batch. The watermark is kept by a
+ * {@link MongoDbTailTrackingManager}, and persisted after each page with persistent tail tracking, or more often with
+ * {@link MongoDbEndpoint#getPersistEveryN()} and {@link MongoDbEndpoint#getPersistInterval()}.
+ * <p/>
+ * The tailTrackIncreasingField must be unique, like an _id or a sequence: documents sharing the value of the last document of a
+ * page would be skipped by the next page, and documents inserted later with a lower value are never seen.
+ * <p/>
+ * Polls adapt to the traffic: pages are fetched back to back as long as they come back full, and every poll that finds nothing
+ * doubles the delay until the next one, up to {@link MongoDbEndpoint#getMaxPollDelay()}.
+ */
+public class MongoDbPollingConsumer extends ScheduledBatchPollingConsumer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MongoDbPollingConsumer.class);
+
+    private final MongoDbEndpoint endpoint;
+    private final DBCollection dbCol;
+    private final Queue<DBObject> pendingDocuments = new ArrayDeque<DBObject>();
+    private MongoDbTailTrackingManager tailTracking;
+    private ScheduledExecutorService checkpointExecutor;
+    private DBObject filter;
+    private DBObject sort;
+    // adaptive delay, counted in skipped polls
+    private int idleSkips;
+    private int skipsLeft;
+
+    public MongoDbPollingConsumer(MongoDbEndpoint endpoint, Processor processor) {
+        super(endpoint, processor);
+        this.endpoint = endpoint;
+        this.dbCol = endpoint.getDbCollection();
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        filter = new BasicDBObject();
+        if (endpoint.getQuery() != null) {
+            MongoDbQueryTemplate template = MongoDbQueryTemplate.parse(endpoint.getQuery());
+            if (!template.getParameters().isEmpty()) {
+                throw new CamelMongoDbException("The query of a polling consumer cannot have parameters: " + endpoint.getQuery());
+            }
+            filter = template.bind(null);
+        }
+        sort = new BasicDBObject(endpoint.getTailTrackIncreasingField(), 1);
+        tailTracking = new MongoDbTailTrackingManager(endpoint.getMongoConnection(), endpoint.getTailTrackingConfig());
+        tailTracking.initialize();
+        tailTracking.recoverFromStore();
+        if (endpoint.isPersistentTailTracking() && (endpoint.getPersistEveryN() > 0 || endpoint.getPersistInterval() > 0)) {
+            checkpointExecutor = endpoint.getCamelContext().getExecutorServiceManager()
+                    .newSingleThreadScheduledExecutor(this, endpoint.getEndpointUri() + "-checkpoint");
+            tailTracking.startCheckpointing(checkpointExecutor, endpoint.getPersistEveryN(), endpoint.getPersistInterval());
+        }
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        super.doStop();
+        if (checkpointExecutor != null) {
+            endpoint.getCamelContext().getExecutorServiceManager().shutdownGraceful(checkpointExecutor);
+            checkpointExecutor = null;
+        }
+        if (tailTracking != null) {
+            tailTracking.persistToStore();
+        }
+    }
+
+    @Override
+    protected int poll() throws Exception {
+        if (skipsLeft > 0) {
+            skipsLeft--;
+            return 0;
+        }
+
+        int total = 0;
+        boolean fullPage = true;
+        while (fullPage && isBatchAllowed()) {
+            Queue<Object> exchanges = fetch();
+            fullPage = maxMessagesPerPoll > 0 && exchanges.size() >= maxMessagesPerPoll;
+            total += processBatch(exchanges);
+            // a long catch-up must not have to start over after a crash
+            tailTracking.persistToStore();
+        }
+
+        if (total > 0) {
+            idleSkips = 0;
+        } else {
+            int maxSkips = (int) Math.max(0, endpoint.getMaxPollDelay() / Math.max(1, getDelay()) - 1);
+            idleSkips = Math.min(maxSkips, idleSkips == 0 ? 1 : idleSkips * 2);
+            skipsLeft = idleSkips;
+        }
+        return total;
+    }
+
+    /**
+     * @return the exchanges of the next page of documents after the watermark
+     */
+    protected Queue<Object> fetch() {
+        DBObject query = filter;
+        if (tailTracking.lastVal != null) {
+            DBObject watermark = new BasicDBObject(endpoint.getTailTrackIncreasingField(), new BasicDBObject("$gt", tailTracking.lastVal));
+            if (filter.keySet().isEmpty()) {
+                query = watermark;
+            } else {
+                BasicDBList and = new BasicDBList();
+                and.add(filter);
+                and.add(watermark);
+                query = new BasicDBObject("$and", and);
+            }
+        }
+
+        Queue<Object> answer = new LinkedList<Object>();
+        DBCursor cursor = dbCol.find(query).sort(sort).limit(maxMessagesPerPoll);
+        try {
+            if (endpoint.isRawBson()) {
+                cursor.setDecoderFactory(MongoDbRawBsonDecoderFactory.INSTANCE);
+            }
+            while (cursor.hasNext()) {
+                DBObject document = cursor.next();
+                pendingDocuments.add(document);
+                answer.add(endpoint.createConsumedExchange(document));
+            }
+        } finally {
+            cursor.close();
+        }
+        LOG.trace("Polled {} documents from {} after {}", new Object[] {answer.size(), dbCol.getFullName(), tailTracking.lastVal});
+        return answer;
+    }
+
+    @Override
+    public int processBatch(Queue<Object> exchanges) throws Exception {
+        int total = exchanges.size();
+        int index = 0;
+        for (; index < total && isBatchAllowed(); index++) {
+            Exchange exchange = (Exchange) exchanges.poll();
+            exchange.setProperty(Exchange.BATCH_INDEX, index);
+            exchange.setProperty(Exchange.BATCH_SIZE, total);
+            exchange.setProperty(Exchange.BATCH_COMPLETE, index == total - 1);
+            pendingExchanges = total - index - 1;
+
+            try {
+                getProcessor().process(exchange);
+            } catch (Exception e) {
+                exchange.setException(e);
+            }
+            if (exchange.getException() != null) {
+                getExceptionHandler().handleException("Error processing exchange", exchange, exchange.getException());
+            }
+            tailTracking.setLastVal(pendingDocuments.poll());
+        }
+        // the documents of a batch interrupted by a shutdown are read again by the next poll
+        pendingDocuments.clear();
+        return index;
+    }
+}
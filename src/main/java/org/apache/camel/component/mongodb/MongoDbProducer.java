@@ -16,41 +16,288 @@
  */
 package org.apache.camel.component.mongodb;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
-import com.mongodb.AggregationOutput;
+import com.mongodb.AggregationOptions;
 import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.BulkWriteUpsert;
+import com.mongodb.CommandResult;
+import com.mongodb.Cursor;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import com.mongodb.InsertOptions;
+import com.mongodb.LazyDBEncoder;
+import com.mongodb.MapReduceCommand;
+import com.mongodb.MapReduceOutput;
+import com.mongodb.MongoCommandException;
 import com.mongodb.WriteConcern;
 import com.mongodb.WriteResult;
+import com.mongodb.util.JSON;
 
+import org.apache.camel.AsyncCallback;
 import org.apache.camel.Exchange;
+import org.apache.camel.InvalidPayloadException;
 import org.apache.camel.Message;
 import org.apache.camel.TypeConverter;
-import org.apache.camel.impl.DefaultProducer;
+import org.apache.camel.api.management.ManagedAttribute;
+import org.apache.camel.api.management.ManagedOperation;
+import org.apache.camel.api.management.ManagedResource;
+import org.apache.camel.component.mongodb.converters.MongoDbBasicConverters;
+import org.apache.camel.impl.DefaultAsyncProducer;
+import org.apache.camel.util.IOHelper;
+import org.apache.camel.util.LRUCache;
 import org.apache.camel.util.MessageHelper;
 import org.apache.camel.util.ObjectHelper;
+import org.apache.camel.util.ServiceHelper;
+import org.bson.types.Code;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * The MongoDb producer.
  */
-public class MongoDbProducer extends DefaultProducer {
+@ManagedResource(description = "Managed MongoDB Producer")
+public class MongoDbProducer extends DefaultAsyncProducer {
     private static final Logger LOG = LoggerFactory.getLogger(MongoDbProducer.class);
+    // error code of a distinct command whose result exceeds the maximum BSON document size
+    private static final int DISTINCT_TOO_BIG = 17217;
+    // the operations whose body is a query, which the endpoint's query template provides
+    private static final Set<MongoDbOperation> TEMPLATE_OPERATIONS = EnumSet.of(MongoDbOperation.count, MongoDbOperation.findAll,
+            MongoDbOperation.findOneByQuery, MongoDbOperation.remove);
     private MongoDbEndpoint endpoint;
+    private MongoDbInsertBatcher insertBatcher;
+    private MongoDbFindByIdBatcher findByIdBatcher;
+    private final MongoDbCountCache countCache = new MongoDbCountCache();
+    private ExecutorService parallelScanExecutor;
+    private MongoDbQueryCache queryCache;
+    private LRUCache<String, DBObject> parsedQueries;
+    private MongoDbMaterializer materializer;
+    private MongoDbTailTrackingManager mapReduceWatermark;
+    private MongoDbInstrumentation instrumentation;
 
     public MongoDbProducer(MongoDbEndpoint endpoint) {
         super(endpoint);
         this.endpoint = endpoint;
     }
 
-    public void process(Exchange exchange) throws Exception {
+    public boolean process(Exchange exchange, AsyncCallback callback) {
+        MongoDbOperation operation;
+        AsyncCallback answerCallback = callback;
+        // resolved at most once for the cache, the materializer and the instrumentation, as dynamicity may ensure indexes
+        DBCollection dbCol = null;
+        try {
+            operation = resolveOperation(exchange);
+            MongoDbQueryTemplate template = endpoint.getQueryTemplate();
+            if (template != null && TEMPLATE_OPERATIONS.contains(operation)) {
+                exchange.getIn().setBody(template.bind(exchange));
+            }
+            if (queryCache != null) {
+                if (operation == MongoDbOperation.findById || operation == MongoDbOperation.findOneByQuery) {
+                    answerCallback = readThroughCache(operation, exchange, callback);
+                    if (answerCallback == null) {
+                        callback.done(true);
+                        return true;
+                    }
+                } else if (isWriteOperation(operation)) {
+                    dbCol = calculateCollection(exchange);
+                    answerCallback = invalidateCacheOnCompletion(dbCol.getFullName(), callback);
+                }
+            }
+            if (endpoint.getMaterializeWriteThreshold() > 0 && isWriteOperation(operation) && operation != MongoDbOperation.materialize) {
+                if (dbCol == null) {
+                    dbCol = calculateCollection(exchange);
+                }
+                answerCallback = countWriteOnCompletion(dbCol.getFullName(), exchange, answerCallback);
+            }
+            if (instrumentation != null && dbCol == null && MongoDbInstrumentation.isExplainable(operation)) {
+                dbCol = calculateCollection(exchange);
+            }
+        } catch (Exception e) {
+            exchange.setException(MongoDbComponent.wrapInCamelMongoDbException(e));
+            callback.done(true);
+            return true;
+        }
+        if (instrumentation != null) {
+            answerCallback = instrumentOnCompletion(operation, exchange, dbCol, answerCallback);
+        }
+        return doProcess(operation, exchange, answerCallback);
+    }
+
+    private AsyncCallback instrumentOnCompletion(final MongoDbOperation operation, final Exchange exchange, final DBCollection dbCol,
+                                                 final AsyncCallback callback) {
+        final long start = System.nanoTime();
+        return new AsyncCallback() {
+            @Override
+            public void done(boolean doneSync) {
+                instrumentation.record(operation, exchange, dbCol, System.nanoTime() - start);
+                callback.done(doneSync);
+            }
+        };
+    }
+
+    /**
+     * Executes the operation once the cache, if any, could not answer.
+     */
+    protected boolean doProcess(MongoDbOperation operation, Exchange exchange, AsyncCallback callback) {
+        try {
+            // only single-document inserts relying on the endpoint's WriteConcern are coalesced, as a batch is written with a single WriteConcern
+            if (insertBatcher != null && operation == MongoDbOperation.insert && !endpoint.isStreamingInsert() && !endpoint.isRawBson()
+                    && exchange.getIn().getHeader(MongoDbConstants.WRITECONCERN) == null) {
+                String insert = exchange.getIn().getBody(String.class);
+                if (insert != null) {
+                    // the batcher will complete the exchange once its batch is flushed
+                    insertBatcher.submit(exchange, callback, calculateCollection(exchange), createSingleInsertObject(insert));
+                    return false;
+                }
+            }
+            // lookups with a fields filter are not coalesced, as a batch is read with a single projection
+            if (findByIdBatcher != null && operation == MongoDbOperation.findById
+                    && exchange.getIn().getHeader(MongoDbConstants.FIELDS_FILTER) == null) {
+                findByIdBatcher.submit(exchange, callback, calculateCollection(exchange), exchange.getIn().getMandatoryBody());
+                return false;
+            }
+            invokeOperation(operation, exchange);
+        } catch (Exception e) {
+            exchange.setException(MongoDbComponent.wrapInCamelMongoDbException(e));
+        }
+
+        callback.done(true);
+        return true;
+    }
+
+    /**
+     * Converts the body holding a query, sort or projection. JSON strings are parsed through the parsed query cache, if enabled.
+     */
+    protected DBObject getQueryBody(Exchange exchange, boolean mandatory) throws InvalidPayloadException {
+        Object body = exchange.getIn().getBody();
+        if (body instanceof String && parsedQueries != null) {
+            DBObject answer = parseQuery((String) body);
+            if (answer != null) {
+                return answer;
+            }
+        }
+        return mandatory ? exchange.getIn().getMandatoryBody(DBObject.class) : exchange.getIn().getBody(DBObject.class);
+    }
+
+    /**
+     * Converts the header holding a query, sort or projection. JSON strings are parsed through the parsed query cache, if enabled.
+     */
+    protected DBObject getQueryHeader(Exchange exchange, String name) {
+        Object header = exchange.getIn().getHeader(name);
+        if (header instanceof String && parsedQueries != null) {
+            DBObject answer = parseQuery((String) header);
+            if (answer != null) {
+                return answer;
+            }
+        }
+        return exchange.getIn().getHeader(name, DBObject.class);
+    }
+
+    private DBObject parseQuery(String json) {
+        DBObject parsed = parsedQueries.get(json);
+        if (parsed == null) {
+            parsed = MongoDbBasicConverters.fromStringToDBObject(json);
+            if (parsed == null) {
+                // not cacheable, let the type converters report it
+                return null;
+            }
+            parsedQueries.put(json, parsed);
+        }
+        // the cached instance must not be altered by the operations
+        return parsed instanceof BasicDBObject ? (DBObject) ((BasicDBObject) parsed).copy() : (DBObject) JSON.parse(json);
+    }
+
+    /**
+     * Answers the lookup from the cache if possible.
+     *
+     * @return null if the exchange has been answered from the cache, otherwise the callback to complete the exchange with, which
+     *         caches its result
+     */
+    private AsyncCallback readThroughCache(MongoDbOperation operation, final Exchange exchange, final AsyncCallback callback) throws Exception {
+        final String collection = calculateCollection(exchange).getFullName();
+        final String key = lookupCacheKey(operation, exchange);
+        Object cached = queryCache.get(collection, key);
+        if (cached != MongoDbQueryCache.MISS) {
+            Message resultMessage = prepareResponseMessage(exchange, operation);
+            resultMessage.setBody(cached);
+            resultMessage.setHeader(MongoDbConstants.RESULT_TOTAL_SIZE, cached == null ? 0 : 1);
+            return null;
+        }
+
+        final long generation = queryCache.generation(collection);
+        return new AsyncCallback() {
+            @Override
+            public void done(boolean doneSync) {
+                if (exchange.getException() == null) {
+                    Message result = exchange.hasOut() ? exchange.getOut() : exchange.getIn();
+                    queryCache.put(collection, key, result.getBody(), generation);
+                }
+                callback.done(doneSync);
+            }
+        };
+    }
+
+    void invalidateCache(String collection) {
+        if (queryCache != null) {
+            queryCache.invalidate(collection);
+        }
+    }
+
+    private AsyncCallback invalidateCacheOnCompletion(final String collection, final AsyncCallback callback) {
+        return new AsyncCallback() {
+            @Override
+            public void done(boolean doneSync) {
+                // even a failed write may have modified some documents
+                queryCache.invalidate(collection);
+                callback.done(doneSync);
+            }
+        };
+    }
+
+    private AsyncCallback countWriteOnCompletion(final String collection, final Exchange exchange, final AsyncCallback callback) {
+        return new AsyncCallback() {
+            @Override
+            public void done(boolean doneSync) {
+                // only the writes which went through count towards a refresh of the materializations
+                if (exchange.getException() == null) {
+                    materializer.onWrite(collection);
+                }
+                callback.done(doneSync);
+            }
+        };
+    }
+
+    private String lookupCacheKey(MongoDbOperation operation, Exchange exchange) {
+        Message in = exchange.getIn();
+        return operation + "|" + toCacheKey(in.getBody()) + "|" + toCacheKey(in.getHeader(MongoDbConstants.FIELDS_FILTER))
+                + "|" + toCacheKey(in.getHeader(MongoDbConstants.SORT_BY));
+    }
+
+    private static String toCacheKey(Object value) {
+        // JSON strings are used as they are, rather than parsed only to be serialized back
+        return value instanceof String ? (String) value : JSON.serialize(value);
+    }
+
+    protected MongoDbOperation resolveOperation(Exchange exchange) throws CamelMongoDbException {
         MongoDbOperation operation = endpoint.getOperation();
         Object header = exchange.getIn().getHeader(MongoDbConstants.OPERATION_HEADER);
         if (header != null) {
@@ -66,13 +313,58 @@ public class MongoDbProducer extends DefaultProducer {
                 throw new CamelMongoDbException("Operation specified on header is not supported. Value: " + header, e);
             }
         }
+        return operation;
+    }
 
-        try {
-            invokeOperation(operation, exchange);
-        } catch (Exception e) {
-            throw MongoDbComponent.wrapInCamelMongoDbException(e);
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        if (endpoint.getBatchWindow() > 0) {
+            insertBatcher = new MongoDbInsertBatcher(this, endpoint.getBatchWindow(), endpoint.getMaxBatchSize());
+            ServiceHelper.startService(insertBatcher);
+        }
+        if (endpoint.getFindByIdBatchWindow() > 0) {
+            findByIdBatcher = new MongoDbFindByIdBatcher(this, endpoint.getFindByIdBatchWindow(), endpoint.getMaxBatchSize());
+            ServiceHelper.startService(findByIdBatcher);
+        }
+        if (endpoint.getMapReduceIncrementalField() != null) {
+            if (endpoint.getPersistentId() == null) {
+                throw new IllegalArgumentException("persistentId is compulsory for incremental mapReduce");
+            }
+            // the watermark is stored like the position of a tailable consumer, in the default tail tracking collection
+            mapReduceWatermark = new MongoDbTailTrackingManager(endpoint.getMongoConnection(), new MongoDbTailTrackingConfig(true,
+                    endpoint.getMapReduceIncrementalField(), endpoint.getDatabase(), null, null, endpoint.getPersistentId()));
+            mapReduceWatermark.initialize();
+        }
+        if (endpoint.getSlowQueryThreshold() > 0) {
+            instrumentation = new MongoDbInstrumentation(this, endpoint.getSlowQueryThreshold(), endpoint.getExplainSampleRate(),
+                    endpoint.isSlowQueryLog());
+            ServiceHelper.startService(instrumentation);
         }
+        // shared with the other producers of the endpoint, so that the writes of all of them count
+        materializer = endpoint.getMaterializer();
+        if (endpoint.getParsedQueryCacheSize() > 0) {
+            parsedQueries = new LRUCache<String, DBObject>(endpoint.getParsedQueryCacheSize());
+        }
+        // shared with the other producers of the endpoint
+        queryCache = endpoint.getQueryCache();
+        if (endpoint.getParallelScan() > 1) {
+            // each scan holds one thread per range while the route consumes it, so the pool must not be bounded
+            parallelScanExecutor = endpoint.getCamelContext().getExecutorServiceManager()
+                    .newCachedThreadPool(this, "MongoDbParallelScan[" + endpoint.getEndpointKey() + "]");
+        }
+    }
 
+    @Override
+    protected void doStop() throws Exception {
+        ServiceHelper.stopServices(insertBatcher, findByIdBatcher, instrumentation);
+        insertBatcher = null;
+        findByIdBatcher = null;
+        if (parallelScanExecutor != null) {
+            endpoint.getCamelContext().getExecutorServiceManager().shutdownNow(parallelScanExecutor);
+            parallelScanExecutor = null;
+        }
+        super.doStop();
     }
 
     /**
@@ -100,6 +392,18 @@ public class MongoDbProducer extends DefaultProducer {
             doFindAll(exchange);
             break;
 
+        case distinct:
+            doDistinct(exchange);
+            break;
+
+        case group:
+            doGroup(exchange);
+            break;
+
+        case mapReduce:
+            doMapReduce(exchange);
+            break;
+
         case insert:
             doInsert(exchange);
             break;
@@ -112,13 +416,25 @@ public class MongoDbProducer extends DefaultProducer {
             doUpdate(exchange);
             break;
 
+        case findAndModify:
+            doFindAndModify(exchange);
+            break;
+
         case remove:
             doRemove(exchange);
             break;
+
+        case bulkWrite:
+            doBulkWrite(exchange);
+            break;
         
         case aggregate:
             doAggregate(exchange);
             break;
+
+        case materialize:
+            doMaterialize(exchange);
+            break;
         
         case getDbStats:
             doGetStats(exchange, MongoDbOperation.getDbStats);
@@ -168,7 +484,7 @@ public class MongoDbProducer extends DefaultProducer {
 
     protected void doRemove(Exchange exchange) throws Exception {
         DBCollection dbCol = calculateCollection(exchange);
-        DBObject removeObj = exchange.getIn().getMandatoryBody(DBObject.class);
+        DBObject removeObj = getQueryBody(exchange, true);
 
         WriteConcern wc = extractWriteConcern(exchange);
         WriteResult result = wc == null ? dbCol.remove(removeObj) : dbCol.remove(removeObj, wc);
@@ -180,6 +496,59 @@ public class MongoDbProducer extends DefaultProducer {
         resultMessage.setHeader(MongoDbConstants.RECORDS_AFFECTED, result.getN());
     }
 
+    /**
+     * Executes a List of write models in a single batch through the driver's {@link BulkWriteOperation}. Each model is a document
+     * following the shell's bulkWrite syntax, i.e. one of {@code insertOne}, {@code updateOne}, {@code updateMany},
+     * {@code replaceOne}, {@code deleteOne} or {@code deleteMany}. The batch is ordered unless the
+     * {@link MongoDbConstants#BULK_ORDERED} header is set to false, in which case the server is free to apply it in parallel.
+     * 
+     * @param exchange
+     * @throws Exception
+     */
+    @SuppressWarnings("rawtypes")
+    protected void doBulkWrite(Exchange exchange) throws Exception {
+        DBCollection dbCol = calculateCollection(exchange);
+        List models = exchange.getIn().getMandatoryBody(List.class);
+        if (models.isEmpty()) {
+            throw new CamelMongoDbException("MongoDB operation = bulkWrite, failed because body is an empty List");
+        }
+
+        Boolean ordered = exchange.getIn().getHeader(MongoDbConstants.BULK_ORDERED, Boolean.class);
+        BulkWriteOperation bulk = ordered == null || ordered ? dbCol.initializeOrderedBulkOperation() : dbCol.initializeUnorderedBulkOperation();
+        TypeConverter converter = exchange.getContext().getTypeConverter();
+        int index = 0;
+        for (Object item : models) {
+            DBObject model;
+            try {
+                model = converter.mandatoryConvertTo(DBObject.class, item);
+            } catch (Exception e) {
+                throw new CamelMongoDbException("MongoDB operation = bulkWrite, List contains items not convertible to DBObject", e);
+            }
+            addBulkWriteModel(bulk, model, index++);
+        }
+
+        WriteConcern wc = extractWriteConcern(exchange);
+        BulkWriteResult result = wc == null ? bulk.execute() : bulk.execute(wc);
+
+        Message resultMessage = prepareResponseMessage(exchange, MongoDbOperation.bulkWrite);
+        processAndTransferWriteResult(result, exchange);
+        if (result.isAcknowledged()) {
+            List<Object> upsertedIds = new ArrayList<Object>(result.getUpserts().size());
+            for (BulkWriteUpsert upsert : result.getUpserts()) {
+                upsertedIds.add(upsert.getId());
+            }
+            int modified = result.isModifiedCountAvailable() ? result.getModifiedCount() : result.getMatchedCount();
+            resultMessage.setHeader(MongoDbConstants.INSERTED_COUNT, result.getInsertedCount());
+            resultMessage.setHeader(MongoDbConstants.MATCHED_COUNT, result.getMatchedCount());
+            if (result.isModifiedCountAvailable()) {
+                resultMessage.setHeader(MongoDbConstants.MODIFIED_COUNT, result.getModifiedCount());
+            }
+            resultMessage.setHeader(MongoDbConstants.REMOVED_COUNT, result.getRemovedCount());
+            resultMessage.setHeader(MongoDbConstants.UPSERTED_IDS, upsertedIds);
+            resultMessage.setHeader(MongoDbConstants.RECORDS_AFFECTED, result.getInsertedCount() + modified + result.getRemovedCount() + upsertedIds.size());
+        }
+    }
+
     @SuppressWarnings("unchecked")
     protected void doUpdate(Exchange exchange) throws Exception {
         DBCollection dbCol = calculateCollection(exchange);
@@ -236,20 +605,61 @@ public class MongoDbProducer extends DefaultProducer {
         Object o = exchange.getIn().getMandatoryBody();
         DBObject ret;
 
-        DBObject fieldFilter = exchange.getIn().getHeader(MongoDbConstants.FIELDS_FILTER, DBObject.class);
-        if (fieldFilter == null) {
+        DBObject fieldFilter = getQueryHeader(exchange, MongoDbConstants.FIELDS_FILTER);
+        if (endpoint.isRawBson()) {
+            ret = findOneRaw(dbCol, new BasicDBObject("_id", o), fieldFilter, null);
+        } else if (fieldFilter == null) {
             ret = dbCol.findOne(o);
         } else {
             ret = dbCol.findOne(o, fieldFilter);
         }
 
+        completeFindById(exchange, ret);
+    }
+
+    void completeFindById(Exchange exchange, DBObject ret) throws IOException {
         Message resultMessage = prepareResponseMessage(exchange, MongoDbOperation.save);
+        resultMessage.setBody(toResponseBody(ret));
+        resultMessage.setHeader(MongoDbConstants.RESULT_TOTAL_SIZE, ret == null ? 0 : 1);
+    }
+
+    /**
+     * Atomically updates the first document matching the query in the body, in the order of the CamelMongoDbSortBy header, with the
+     * update of the CamelMongoDbUpdate header, and returns it as it was before, or after if CamelMongoDbReturnNew is true.
+     * 
+     * @param exchange
+     * @throws Exception
+     */
+    protected void doFindAndModify(Exchange exchange) throws Exception {
+        DBCollection dbCol = calculateCollection(exchange);
+        DBObject query = getQueryBody(exchange, false);
+        DBObject update = getQueryHeader(exchange, MongoDbConstants.UPDATE);
+        if (update == null) {
+            throw new CamelMongoDbException("MongoDB operation = findAndModify, failed because header " + MongoDbConstants.UPDATE + " is missing");
+        }
+        DBObject sortBy = getQueryHeader(exchange, MongoDbConstants.SORT_BY);
+        DBObject fieldFilter = getQueryHeader(exchange, MongoDbConstants.FIELDS_FILTER);
+        boolean upsert = calculateBooleanValue(exchange.getIn().getHeader(MongoDbConstants.UPSERT, Boolean.class));
+        boolean returnNew = calculateBooleanValue(exchange.getIn().getHeader(MongoDbConstants.RETURN_NEW, Boolean.class));
+
+        DBObject ret = dbCol.findAndModify(query == null ? new BasicDBObject() : query, fieldFilter, sortBy, false, update, returnNew, upsert);
+
+        Message resultMessage = prepareResponseMessage(exchange, MongoDbOperation.findAndModify);
         resultMessage.setBody(ret);
         resultMessage.setHeader(MongoDbConstants.RESULT_TOTAL_SIZE, ret == null ? 0 : 1);
     }
 
     @SuppressWarnings({"rawtypes", "unchecked"})
     protected void doInsert(Exchange exchange) throws Exception {
+        if (endpoint.isStreamingInsert()) {
+            doStreamingInsert(exchange);
+            return;
+        }
+        if (endpoint.isRawBson() && isRawBsonBody(exchange.getIn().getBody())) {
+            doRawInsert(exchange);
+            return;
+        }
+
         DBCollection dbCol = calculateCollection(exchange);
         boolean singleInsert = true;
         Object insert = exchange.getIn().getBody(String.class);
@@ -268,11 +678,9 @@ public class MongoDbProducer extends DefaultProducer {
         WriteResult result;
         WriteConcern wc = extractWriteConcern(exchange);
         if (singleInsert) {
-        	DBObject insertObject = new BasicDBObject();
-        	insertObject.put("message", insert);
-        	//DBObject insertObject = (DBObject) insert;
+            DBObject insertObject = createSingleInsertObject(insert);
             result = wc == null ? dbCol.insert(insertObject) : dbCol.insert(insertObject, wc);
-            exchange.getIn().setHeader(MongoDbConstants.OID, insertObject.get("_id"));
+            completeInsert(exchange, insertObject, result);
         } else {
             List<DBObject> insertObjects = (List<DBObject>) insert;
             result = wc == null ? dbCol.insert(insertObjects) : dbCol.insert(insertObjects, wc);
@@ -281,6 +689,20 @@ public class MongoDbProducer extends DefaultProducer {
                 oids.add(insertObject.get("_id"));
             }
             exchange.getIn().setHeader(MongoDbConstants.OID, oids);
+            completeInsert(exchange, null, result);
+        }
+    }
+
+    /**
+     * Populates the response of an insert, once the document(s) have been written either directly or as part of a batch.
+     * 
+     * @param exchange
+     * @param insertObject the inserted document if it was a single insert, whose OID is then set as a header
+     * @param result
+     */
+    void completeInsert(Exchange exchange, DBObject insertObject, WriteResult result) {
+        if (insertObject != null) {
+            exchange.getIn().setHeader(MongoDbConstants.OID, insertObject.get("_id"));
         }
 
         Message resultMessage = prepareResponseMessage(exchange, MongoDbOperation.insert);
@@ -290,29 +712,215 @@ public class MongoDbProducer extends DefaultProducer {
         resultMessage.setBody(result);
     }
 
+    /**
+     * Inserts BSON documents received as byte[] or ByteBuffer (or a List of them) as they are, without decoding them into
+     * DBObjects and encoding them back.
+     * 
+     * @param exchange
+     * @throws Exception
+     */
+    @SuppressWarnings("rawtypes")
+    protected void doRawInsert(Exchange exchange) throws Exception {
+        DBCollection dbCol = calculateCollection(exchange);
+        Object body = exchange.getIn().getBody();
+        boolean singleInsert = !(body instanceof List);
+        List<DBObject> insertObjects = new ArrayList<DBObject>();
+        if (singleInsert) {
+            insertObjects.add(MongoDbRawBsonDecoderFactory.fromBytes(body));
+        } else {
+            for (Object item : (List) body) {
+                if (!isRawBsonBody(item)) {
+                    throw new CamelMongoDbException("MongoDB operation = insert, raw BSON List contains items that are not byte[] nor ByteBuffer");
+                }
+                insertObjects.add(MongoDbRawBsonDecoderFactory.fromBytes(item));
+            }
+        }
+
+        InsertOptions options = new InsertOptions().dbEncoder(new LazyDBEncoder());
+        WriteConcern wc = extractWriteConcern(exchange);
+        if (wc != null) {
+            options.writeConcern(wc);
+        }
+        WriteResult result = dbCol.insert(insertObjects, options);
+
+        if (singleInsert) {
+            completeInsert(exchange, insertObjects.get(0), result);
+        } else {
+            List<Object> oids = new ArrayList<Object>(insertObjects.size());
+            for (DBObject insertObject : insertObjects) {
+                oids.add(insertObject.get("_id"));
+            }
+            exchange.getIn().setHeader(MongoDbConstants.OID, oids);
+            completeInsert(exchange, null, result);
+        }
+    }
+
+    /**
+     * Inserts the documents of a newline-delimited JSON or concatenated BSON stream, reading them one at a time and writing them
+     * in chunks of {@link MongoDbEndpoint#getMaxBatchSize()} documents, so memory stays flat regardless of the payload size.
+     * Documents that cannot be parsed or inserted do not stop the process: their byte offsets are returned in the
+     * {@link MongoDbConstants#FAILED_OFFSETS} header, next to the total inserted count. If the stream cannot be read to the end, the
+     * documents read so far are still inserted and reported in these headers before the failure is rethrown.
+     * 
+     * @param exchange
+     * @throws Exception
+     */
+    protected void doStreamingInsert(Exchange exchange) throws Exception {
+        DBCollection dbCol = calculateCollection(exchange);
+        InputStream is = exchange.getIn().getMandatoryBody(InputStream.class);
+        WriteConcern wc = extractWriteConcern(exchange);
+        int chunkSize = endpoint.getMaxBatchSize();
+
+        List<DBObject> chunk = new ArrayList<DBObject>(chunkSize);
+        List<Long> chunkOffsets = new ArrayList<Long>(chunkSize);
+        List<Long> failedOffsets = new ArrayList<Long>();
+        long inserted = 0;
+        MongoDbDocumentReader reader = new MongoDbDocumentReader(is);
+        try {
+            while (reader.hasNext()) {
+                try {
+                    chunk.add(reader.next());
+                    chunkOffsets.add(reader.getOffset());
+                } catch (CamelMongoDbException e) {
+                    LOG.debug("Skipping document that could not be parsed", e);
+                    failedOffsets.add(reader.getOffset());
+                }
+                if (chunk.size() >= chunkSize) {
+                    inserted += insertChunk(dbCol, chunk, chunkOffsets, wc, failedOffsets);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                inserted += insertChunk(dbCol, chunk, chunkOffsets, wc, failedOffsets);
+            }
+        } catch (IOException e) {
+            // the documents read before the failure are complete, insert them and tell the caller how far the stream got
+            if (!chunk.isEmpty()) {
+                inserted += insertChunk(dbCol, chunk, chunkOffsets, wc, failedOffsets);
+            }
+            setStreamingInsertHeaders(prepareResponseMessage(exchange, MongoDbOperation.insert), inserted, failedOffsets);
+            throw new CamelMongoDbException("Could not read the document at offset " + reader.getOffset() + " of the stream, after inserting "
+                    + inserted + " documents", e);
+        } finally {
+            IOHelper.close(reader, "InputStream", LOG);
+        }
+
+        Message resultMessage = prepareResponseMessage(exchange, MongoDbOperation.insert);
+        processAndTransferWriteResult(new WriteResult((int) inserted, false, null), exchange);
+        setStreamingInsertHeaders(resultMessage, inserted, failedOffsets);
+    }
+
+    private static void setStreamingInsertHeaders(Message message, long inserted, List<Long> failedOffsets) {
+        message.setHeader(MongoDbConstants.INSERT_RECORDS_AFFECTED, inserted);
+        message.setHeader(MongoDbConstants.FAILED_OFFSETS, failedOffsets);
+    }
+
+    private long insertChunk(DBCollection dbCol, List<DBObject> chunk, List<Long> chunkOffsets, WriteConcern wc, List<Long> failedOffsets) {
+        Map<Integer, BulkWriteError> errors = insertUnordered(dbCol, chunk, wc);
+        for (Integer index : new TreeSet<Integer>(errors.keySet())) {
+            failedOffsets.add(chunkOffsets.get(index));
+        }
+        long answer = chunk.size() - errors.size();
+        chunk.clear();
+        chunkOffsets.clear();
+        return answer;
+    }
+
+    /**
+     * Inserts the documents with an unordered bulk operation, so that a failing document does not prevent the others from being
+     * inserted.
+     * 
+     * @return the errors of the documents that could not be inserted, keyed by their index in the list
+     */
+    Map<Integer, BulkWriteError> insertUnordered(DBCollection dbCol, List<DBObject> documents, WriteConcern wc) {
+        BulkWriteOperation bulk = dbCol.initializeUnorderedBulkOperation();
+        for (DBObject document : documents) {
+            bulk.insert(document);
+        }
+
+        Map<Integer, BulkWriteError> errors = new HashMap<Integer, BulkWriteError>();
+        try {
+            if (wc == null) {
+                bulk.execute();
+            } else {
+                bulk.execute(wc);
+            }
+        } catch (BulkWriteException e) {
+            if (e.getWriteConcernError() != null) {
+                // the write concern error is not tied to a specific document, so it affects the whole batch
+                throw e;
+            }
+            for (BulkWriteError error : e.getWriteErrors()) {
+                errors.put(error.getIndex(), error);
+            }
+        }
+        return errors;
+    }
+
     protected void doFindAll(Exchange exchange) throws Exception {
         DBCollection dbCol = calculateCollection(exchange);
         // do not use getMandatoryBody, because if the body is empty we want to retrieve all objects in the collection
         DBObject query = null;
         // do not run around looking for a type converter unless there is a need for it
         if (exchange.getIn().getBody() != null) {
-            query = exchange.getIn().getBody(DBObject.class);
+            query = getQueryBody(exchange, false);
         }
-        DBObject fieldFilter = exchange.getIn().getHeader(MongoDbConstants.FIELDS_FILTER, DBObject.class);
+        DBObject fieldFilter = getQueryHeader(exchange, MongoDbConstants.FIELDS_FILTER);
 
         // get the batch size and number to skip
         Integer batchSize = exchange.getIn().getHeader(MongoDbConstants.BATCH_SIZE, Integer.class);
         Integer numToSkip = exchange.getIn().getHeader(MongoDbConstants.NUM_TO_SKIP, Integer.class);
         Integer limit = exchange.getIn().getHeader(MongoDbConstants.LIMIT, Integer.class);
-        DBObject sortBy = exchange.getIn().getHeader(MongoDbConstants.SORT_BY, DBObject.class);
+        DBObject sortBy = getQueryHeader(exchange, MongoDbConstants.SORT_BY);
+
+        if (endpoint.getParallelScan() > 1) {
+            if (numToSkip != null || limit != null || sortBy != null) {
+                throw new CamelMongoDbException("MongoDB operation = findAll, skip, limit and sort cannot be combined with parallelScan");
+            }
+            int cursorBatchSize = batchSize != null ? batchSize : endpoint.getBatchSize();
+            List<DBObject> ranges = MongoDbParallelScan.split(dbCol, query, endpoint.getParallelScanKey(), endpoint.getParallelScan());
+            MongoDbParallelScan scan = new MongoDbParallelScan(parallelScanExecutor, dbCol, ranges, fieldFilter, cursorBatchSize, endpoint.isRawBson());
+            Message resultMessage = prepareResponseMessage(exchange, MongoDbOperation.findAll);
+            if (MongoDbOutputType.DBCursor.equals(endpoint.getOutputType())) {
+                exchange.addOnCompletion(scan);
+                resultMessage.setBody(scan);
+            } else {
+                List<Object> documents = new ArrayList<Object>();
+                try {
+                    while (scan.hasNext()) {
+                        documents.add(scan.next());
+                    }
+                } finally {
+                    scan.close();
+                }
+                resultMessage.setBody(documents);
+                setTotalSize(exchange, resultMessage, dbCol, query);
+                resultMessage.setHeader(MongoDbConstants.RESULT_PAGE_SIZE, documents.size());
+            }
+            return;
+        }
+
+        // keyset pagination replaces skipping by a range on the sort key
+        MongoDbKeysetPagination pagination = null;
+        DBObject pageQuery = query;
+        String paginationKey = exchange.getIn().getHeader(MongoDbConstants.PAGINATION_KEY, endpoint.getPaginationKey(), String.class);
+        if (paginationKey != null) {
+            if (numToSkip != null) {
+                throw new CamelMongoDbException("MongoDB operation = findAll, " + MongoDbConstants.NUM_TO_SKIP
+                        + " cannot be combined with keyset pagination");
+            }
+            pagination = MongoDbKeysetPagination.forKey(paginationKey, sortBy);
+            sortBy = pagination.sort();
+            pageQuery = pagination.restrict(query, exchange.getIn().getHeader(MongoDbConstants.CONTINUATION_TOKEN, String.class));
+        }
+
         DBCursor ret = null;
         try {
-            if (query == null && fieldFilter == null) {
+            if (pageQuery == null && fieldFilter == null) {
                 ret = dbCol.find(new BasicDBObject());
             } else if (fieldFilter == null) {
-                ret = dbCol.find(query);
+                ret = dbCol.find(pageQuery);
             } else {
-                ret = dbCol.find(query, fieldFilter);
+                ret = dbCol.find(pageQuery, fieldFilter);
             }
 
             if (sortBy != null) {
@@ -321,6 +929,8 @@ public class MongoDbProducer extends DefaultProducer {
 
             if (batchSize != null) {
                 ret.batchSize(batchSize.intValue());
+            } else if (endpoint.getBatchSize() > 0) {
+                ret.batchSize(endpoint.getBatchSize());
             }
 
             if (numToSkip != null) {
@@ -331,16 +941,38 @@ public class MongoDbProducer extends DefaultProducer {
                 ret.limit(limit.intValue());
             }
 
+            if (endpoint.isRawBson()) {
+                ret.setDecoderFactory(MongoDbRawBsonDecoderFactory.INSTANCE);
+            }
+
             Message resultMessage = prepareResponseMessage(exchange, MongoDbOperation.findAll);
             if (MongoDbOutputType.DBCursor.equals(endpoint.getOutputType())) {
-                resultMessage.setBody(ret.iterator());
+                // stream the documents: the cursor is left open and closed when the exchange is done with it
+                MongoDbCursorIterator iterator = new MongoDbCursorIterator(ret, endpoint.isRawBson());
+                exchange.addOnCompletion(iterator);
+                resultMessage.setBody(iterator);
+                ret = null;
             } else {
-                resultMessage.setBody(ret.toArray());
-                resultMessage.setHeader(MongoDbConstants.RESULT_TOTAL_SIZE, ret.count());
-                resultMessage.setHeader(MongoDbConstants.RESULT_PAGE_SIZE, ret.size());
+                List<DBObject> documents = ret.toArray();
+                if (endpoint.isRawBson()) {
+                    List<byte[]> rawDocuments = new ArrayList<byte[]>(documents.size());
+                    for (DBObject document : documents) {
+                        rawDocuments.add(MongoDbRawBsonDecoderFactory.toByteArray(document));
+                    }
+                    resultMessage.setBody(rawDocuments);
+                } else {
+                    resultMessage.setBody(documents);
+                }
+                setTotalSize(exchange, resultMessage, dbCol, query);
+                resultMessage.setHeader(MongoDbConstants.RESULT_PAGE_SIZE, documents.size());
+                // a full page may be followed by another one
+                if (pagination != null && limit != null && !documents.isEmpty() && documents.size() >= limit) {
+                    resultMessage.setHeader(MongoDbConstants.CONTINUATION_TOKEN,
+                            pagination.continuationToken(documents.get(documents.size() - 1)));
+                }
             }
         } finally {
-            // make sure the cursor is closed
+            // make sure the cursor is closed, unless it has been handed over to the exchange
             if (ret != null) {
                 ret.close();
             }
@@ -348,15 +980,296 @@ public class MongoDbProducer extends DefaultProducer {
 
     }
 
+    /**
+     * Returns the distinct values of the field given by the CamelMongoDbDistinctQueryField header among the documents matching the
+     * query in the body, if any. With outputType=DBCursor, they are streamed from an aggregation cursor instead, and when the values
+     * would not fit in a single reply, they are collected from that aggregation.
+     * 
+     * @param exchange
+     * @throws Exception
+     */
+    protected void doDistinct(Exchange exchange) throws Exception {
+        DBCollection dbCol = calculateCollection(exchange);
+        String field = exchange.getIn().getHeader(MongoDbConstants.DISTINCT_QUERY_FIELD, String.class);
+        if (field == null) {
+            throw new CamelMongoDbException("MongoDB operation = distinct, failed because header " + MongoDbConstants.DISTINCT_QUERY_FIELD + " is missing");
+        }
+        DBObject query = null;
+        if (exchange.getIn().getBody() != null) {
+            query = getQueryBody(exchange, false);
+        }
+
+        Message resultMessage = prepareResponseMessage(exchange, MongoDbOperation.distinct);
+        if (MongoDbOutputType.DBCursor.equals(endpoint.getOutputType())) {
+            MongoDbCursorIterator iterator = new MongoDbCursorIterator(distinctCursor(dbCol, field, query), false, "_id");
+            exchange.addOnCompletion(iterator);
+            resultMessage.setBody(iterator);
+            return;
+        }
+
+        List<?> values;
+        try {
+            // served by a DISTINCT_SCAN when the field is indexed, without fetching any document
+            values = dbCol.distinct(field, query == null ? new BasicDBObject() : query);
+        } catch (MongoCommandException e) {
+            if (e.getErrorCode() != DISTINCT_TOO_BIG) {
+                throw e;
+            }
+            LOG.debug("Distinct values of {} exceed the reply size limit, falling back to an aggregation", field);
+            List<Object> aggregated = new ArrayList<Object>();
+            Cursor cursor = distinctCursor(dbCol, field, query);
+            try {
+                while (cursor.hasNext()) {
+                    aggregated.add(cursor.next().get("_id"));
+                }
+            } finally {
+                cursor.close();
+            }
+            values = aggregated;
+        }
+        resultMessage.setBody(values);
+        resultMessage.setHeader(MongoDbConstants.RESULT_TOTAL_SIZE, values.size());
+    }
+
+    /**
+     * Runs the group command described by the body: {key: {...}, cond: {...}, initial: {...}, reduce: "function...", finalize:
+     * "function..."}. The functions are strings or {@link Code}. The body of the result is the list of groups.
+     * 
+     * @param exchange
+     * @throws Exception
+     */
+    protected void doGroup(Exchange exchange) throws Exception {
+        DBCollection dbCol = calculateCollection(exchange);
+        DBObject spec = exchange.getIn().getMandatoryBody(DBObject.class);
+        String reduce = javaScript(MongoDbOperation.group, spec, "reduce");
+        if (reduce == null) {
+            throw new CamelMongoDbException("MongoDB operation = group, failed because the body has no reduce function");
+        }
+
+        BasicDBObject group = new BasicDBObject("ns", dbCol.getName())
+                .append("key", spec.get("key"))
+                .append("cond", spec.get("cond"))
+                .append("initial", spec.get("initial") == null ? new BasicDBObject() : spec.get("initial"))
+                .append("$reduce", new Code(reduce));
+        String finalize = javaScript(MongoDbOperation.group, spec, "finalize");
+        if (finalize != null) {
+            group.append("finalize", new Code(finalize));
+        }
+        CommandResult result = dbCol.getDB().command(new BasicDBObject("group", group));
+        result.throwOnError();
+
+        Message resultMessage = prepareResponseMessage(exchange, MongoDbOperation.group);
+        resultMessage.setBody(result.get("retval"));
+        resultMessage.setHeader(MongoDbConstants.INPUT_COUNT, result.get("count"));
+        resultMessage.setHeader(MongoDbConstants.RESULT_TOTAL_SIZE, result.get("keys"));
+    }
+
+    /**
+     * Runs the map-reduce described by the body: {map: "function...", reduce: "function...", finalize: "function...", query: {...},
+     * sort: {...}, limit: n, scope: {...}}, the functions being strings or {@link Code}. The output goes inline, in which case the results are the body, or to a collection
+     * (REPLACE, MERGE or REDUCE), in which case the body is the name of the collection. The statistics of the run are returned as
+     * headers.
+     * <p/>
+     * When incremental, only the documents whose mapReduceIncrementalField is above the watermark of the previous run are processed,
+     * and the watermark is moved up to the highest value processed. A document committed after a run with a value at or below its
+     * watermark, e.g. by a concurrent writer which took its value earlier, is never processed.
+     * 
+     * @param exchange
+     * @throws Exception
+     */
+    protected void doMapReduce(Exchange exchange) throws Exception {
+        DBCollection dbCol = calculateCollection(exchange);
+        DBObject spec = exchange.getIn().getMandatoryBody(DBObject.class);
+        String map = javaScript(MongoDbOperation.mapReduce, spec, "map");
+        String reduce = javaScript(MongoDbOperation.mapReduce, spec, "reduce");
+        if (map == null || reduce == null) {
+            throw new CamelMongoDbException("MongoDB operation = mapReduce, failed because the body has no map or reduce function");
+        }
+        MapReduceCommand.OutputType outputType = exchange.getIn().getHeader(MongoDbConstants.MAPREDUCE_OUTPUT_TYPE,
+                endpoint.getMapReduceOutputType(), MapReduceCommand.OutputType.class);
+        String outputCollection = exchange.getIn().getHeader(MongoDbConstants.MAPREDUCE_OUTPUT_COLLECTION,
+                endpoint.getMapReduceOutputCollection(), String.class);
+        if (outputType != MapReduceCommand.OutputType.INLINE && outputCollection == null) {
+            throw new CamelMongoDbException("MongoDB operation = mapReduce, output type " + outputType + " requires an output collection");
+        }
+
+        DBObject query = (DBObject) spec.get("query");
+        if (mapReduceWatermark == null) {
+            runMapReduce(exchange, dbCol, spec, query, outputType, outputCollection);
+            return;
+        }
+
+        if (outputType == MapReduceCommand.OutputType.REPLACE) {
+            throw new CamelMongoDbException("MongoDB operation = mapReduce, an incremental run cannot REPLACE its output collection");
+        }
+        // incremental runs of the endpoint must not overlap, or they would process the same documents twice
+        synchronized (mapReduceWatermark) {
+            String field = endpoint.getMapReduceIncrementalField();
+            Object from = mapReduceWatermark.recoverFromStore();
+            // bound the run to the documents present now, those arriving meanwhile will be processed by the next run
+            DBObject last = dbCol.findOne(query == null ? new BasicDBObject() : query, new BasicDBObject(field, 1),
+                    new BasicDBObject(field, -1));
+            if (last == null || last.get(field) == null) {
+                LOG.debug("No document to map-reduce incrementally");
+                setEmptyMapReduceResult(exchange, outputType, outputCollection);
+                return;
+            }
+            Object to = last.get(field);
+            BasicDBObject range = new BasicDBObject("$lte", to);
+            if (from != null) {
+                range.append("$gt", from);
+            }
+            BasicDBList and = new BasicDBList();
+            and.add(query == null ? new BasicDBObject() : query);
+            and.add(new BasicDBObject(field, range));
+
+            runMapReduce(exchange, dbCol, spec, new BasicDBObject("$and", and), outputType, outputCollection);
+            mapReduceWatermark.lastVal = to;
+            mapReduceWatermark.persistToStore();
+        }
+    }
+
+    private void runMapReduce(Exchange exchange, DBCollection dbCol, DBObject spec, DBObject query, MapReduceCommand.OutputType outputType,
+                              String outputCollection) throws Exception {
+        MapReduceCommand command = new MapReduceCommand(dbCol, javaScript(MongoDbOperation.mapReduce, spec, "map"),
+                javaScript(MongoDbOperation.mapReduce, spec, "reduce"), outputCollection, outputType, query);
+        String finalize = javaScript(MongoDbOperation.mapReduce, spec, "finalize");
+        if (finalize != null) {
+            command.setFinalize(finalize);
+        }
+        if (spec.get("sort") != null) {
+            command.setSort((DBObject) spec.get("sort"));
+        }
+        if (spec.get("limit") != null) {
+            command.setLimit(((Number) spec.get("limit")).intValue());
+        }
+        if (spec.get("scope") instanceof DBObject) {
+            DBObject scope = (DBObject) spec.get("scope");
+            Map<String, Object> variables = new HashMap<String, Object>();
+            for (String name : scope.keySet()) {
+                variables.put(name, scope.get(name));
+            }
+            command.setScope(variables);
+        }
+        if (endpoint.getMaxTimeMS() > 0) {
+            command.setMaxTime(endpoint.getMaxTimeMS(), TimeUnit.MILLISECONDS);
+        }
+
+        MapReduceOutput output = dbCol.mapReduce(command);
+        Message resultMessage = prepareResponseMessage(exchange, MongoDbOperation.mapReduce);
+        if (outputType == MapReduceCommand.OutputType.INLINE) {
+            List<DBObject> results = new ArrayList<DBObject>();
+            for (DBObject result : output.results()) {
+                results.add(result);
+            }
+            resultMessage.setBody(results);
+        } else {
+            invalidateCache(output.getOutputCollection().getFullName());
+            resultMessage.setBody(output.getCollectionName());
+        }
+        resultMessage.setHeader(MongoDbConstants.INPUT_COUNT, output.getInputCount());
+        resultMessage.setHeader(MongoDbConstants.EMIT_COUNT, output.getEmitCount());
+        resultMessage.setHeader(MongoDbConstants.OUTPUT_COUNT, output.getOutputCount());
+        resultMessage.setHeader(MongoDbConstants.DURATION, output.getDuration());
+    }
+
+    /**
+     * Answers an incremental map-reduce which has no document to process, without a round trip: no result inline, and an output
+     * collection left as it is.
+     */
+    private void setEmptyMapReduceResult(Exchange exchange, MapReduceCommand.OutputType outputType, String outputCollection) {
+        Message resultMessage = prepareResponseMessage(exchange, MongoDbOperation.mapReduce);
+        if (outputType == MapReduceCommand.OutputType.INLINE) {
+            resultMessage.setBody(new ArrayList<DBObject>());
+        } else {
+            resultMessage.setBody(outputCollection);
+        }
+        resultMessage.setHeader(MongoDbConstants.INPUT_COUNT, 0);
+        resultMessage.setHeader(MongoDbConstants.EMIT_COUNT, 0);
+        resultMessage.setHeader(MongoDbConstants.OUTPUT_COUNT, 0);
+        resultMessage.setHeader(MongoDbConstants.DURATION, 0);
+    }
+
+    /**
+     * @return the JavaScript function of the given field of the body, given as a string or as {@link Code}, null if absent
+     */
+    private static String javaScript(MongoDbOperation operation, DBObject spec, String field) throws CamelMongoDbException {
+        Object function = spec.get(field);
+        if (function == null || function instanceof String) {
+            return (String) function;
+        } else if (function instanceof Code) {
+            return ((Code) function).getCode();
+        }
+        throw new CamelMongoDbException("MongoDB operation = " + operation + ", the " + field + " function must be a string or code, not "
+                + function.getClass().getName());
+    }
+
+    private Cursor distinctCursor(DBCollection dbCol, String field, DBObject query) {
+        List<DBObject> pipeline = new ArrayList<DBObject>();
+        if (query != null && !query.keySet().isEmpty()) {
+            pipeline.add(new BasicDBObject("$match", query));
+        }
+        if (!"_id".equals(field)) {
+            // let an index on the field cover the query
+            pipeline.add(new BasicDBObject("$project", new BasicDBObject(field, 1).append("_id", 0)));
+        }
+        // like distinct, count each element of an array on its own and skip missing values and empty arrays, but keep null values
+        // which a plain $unwind would drop along with them: only the documents unwound from an empty array or missing the field
+        // lack it afterwards
+        pipeline.add(new BasicDBObject("$unwind", new BasicDBObject("path", "$" + field).append("preserveNullAndEmptyArrays", true)));
+        pipeline.add(new BasicDBObject("$match", new BasicDBObject(field, new BasicDBObject("$exists", true))));
+        pipeline.add(new BasicDBObject("$group", new BasicDBObject("_id", "$" + field)));
+        AggregationOptions.Builder options = AggregationOptions.builder().outputMode(AggregationOptions.OutputMode.CURSOR).allowDiskUse(true);
+        if (endpoint.getBatchSize() > 0) {
+            options.batchSize(endpoint.getBatchSize());
+        }
+        return dbCol.aggregate(pipeline, options.build());
+    }
+
+    private void setTotalSize(Exchange exchange, Message resultMessage, DBCollection dbCol, DBObject query) {
+        long total;
+        switch (resolveTotalSizeStrategy(exchange)) {
+        case none:
+            return;
+        case estimated:
+            // the count of an unfiltered collection is answered from its metadata
+            total = dbCol.getCount();
+            break;
+        case cachedExact:
+            String key = MongoDbCountCache.key(dbCol, query);
+            Long cached = countCache.get(key);
+            if (cached == null) {
+                cached = dbCol.getCount(query == null ? new BasicDBObject() : query);
+                countCache.put(key, cached, endpoint.getTotalSizeCacheTtl());
+            }
+            total = cached;
+            break;
+        default:
+            total = dbCol.getCount(query == null ? new BasicDBObject() : query);
+        }
+        resultMessage.setHeader(MongoDbConstants.RESULT_TOTAL_SIZE, (int) total);
+    }
+
+    protected MongoDbTotalSizeStrategy resolveTotalSizeStrategy(Exchange exchange) {
+        MongoDbTotalSizeStrategy strategy = exchange.getIn().getHeader(MongoDbConstants.TOTAL_SIZE_STRATEGY, MongoDbTotalSizeStrategy.class);
+        return strategy != null ? strategy : endpoint.getTotalSizeStrategy();
+    }
+
+    protected MongoDbCountCache getCountCache() {
+        return countCache;
+    }
+
     protected void doFindOneByQuery(Exchange exchange) throws Exception {
         DBCollection dbCol = calculateCollection(exchange);
-        DBObject o = exchange.getIn().getMandatoryBody(DBObject.class);
+        DBObject o = getQueryBody(exchange, true);
         DBObject ret;
 
-        DBObject sortBy = exchange.getIn().getHeader(MongoDbConstants.SORT_BY, DBObject.class);
-        DBObject fieldFilter = exchange.getIn().getHeader(MongoDbConstants.FIELDS_FILTER, DBObject.class);
+        DBObject sortBy = getQueryHeader(exchange, MongoDbConstants.SORT_BY);
+        DBObject fieldFilter = getQueryHeader(exchange, MongoDbConstants.FIELDS_FILTER);
 
-        if (sortBy != null) {
+        if (endpoint.isRawBson()) {
+            ret = findOneRaw(dbCol, o, fieldFilter, sortBy);
+        } else if (sortBy != null) {
             ret = dbCol.findOne(o, fieldFilter, sortBy);
         } else if (fieldFilter != null) {
             ret = dbCol.findOne(o, fieldFilter);
@@ -365,13 +1278,13 @@ public class MongoDbProducer extends DefaultProducer {
         }
         
         Message resultMessage = prepareResponseMessage(exchange, MongoDbOperation.findOneByQuery);
-        resultMessage.setBody(ret);
+        resultMessage.setBody(toResponseBody(ret));
         resultMessage.setHeader(MongoDbConstants.RESULT_TOTAL_SIZE, ret == null ? 0 : 1);
     }
 
     protected void doCount(Exchange exchange) throws Exception {
         DBCollection dbCol = calculateCollection(exchange);
-        DBObject query = exchange.getIn().getBody(DBObject.class);
+        DBObject query = getQueryBody(exchange, false);
         Long answer;
         if (query == null) {
             answer = dbCol.count();
@@ -383,8 +1296,8 @@ public class MongoDbProducer extends DefaultProducer {
     }
     
     /**
-    * All headers except collection and database are non available for this
-    * operation.
+    * Runs the pipeline through a cursor, so the result is not bound by the size of a single reply. The CamelMongoDbBatchSize,
+    * CamelMongoDbAllowDiskUse and CamelMongoDbMaxTimeMS headers override the endpoint options of the same name.
     * 
     * @param exchange
     * @throws Exception
@@ -393,26 +1306,93 @@ public class MongoDbProducer extends DefaultProducer {
         DBCollection dbCol = calculateCollection(exchange);
         DBObject query = exchange.getIn().getMandatoryBody(DBObject.class);
 
-        // Impossible with java driver to get the batch size and number to skip
-        Iterable<DBObject> dbIterator = null;
-        AggregationOutput aggregationResult = null;
-
         // Allow body to be a pipeline
         // @see http://docs.mongodb.org/manual/core/aggregation/
+        List<DBObject> pipeline = new ArrayList<DBObject>();
         if (query instanceof BasicDBList) {
-            BasicDBList queryList = (BasicDBList)query;
-            aggregationResult = dbCol.aggregate((DBObject)queryList.get(0), queryList
-                .subList(1, queryList.size()).toArray(new BasicDBObject[queryList.size() - 1]));
+            for (Object stage : (BasicDBList) query) {
+                pipeline.add((DBObject) stage);
+            }
         } else {
-            aggregationResult = dbCol.aggregate(query);
+            pipeline.add(query);
         }
 
-        dbIterator = aggregationResult.results();
+        Cursor cursor = dbCol.aggregate(pipeline, createAggregationOptions(exchange));
         Message resultMessage = prepareResponseMessage(exchange, MongoDbOperation.aggregate);
-        resultMessage.setBody(dbIterator);
+        if (MongoDbOutputType.DBCursor.equals(endpoint.getOutputType())) {
+            // stream the results: the cursor is left open and closed when the exchange is done with it
+            MongoDbCursorIterator iterator = new MongoDbCursorIterator(cursor, false);
+            exchange.addOnCompletion(iterator);
+            resultMessage.setBody(iterator);
+        } else {
+            List<DBObject> results = new ArrayList<DBObject>();
+            try {
+                while (cursor.hasNext()) {
+                    results.add(cursor.next());
+                }
+            } finally {
+                cursor.close();
+            }
+            resultMessage.setBody(results);
+        }
+    }
+
+    /**
+     * Runs the pipeline in the body into the collection given by the CamelMongoDbMaterializedCollection header or the
+     * materializedCollection option, replacing its content at once.
+     * 
+     * @param exchange
+     * @throws Exception
+     */
+    protected void doMaterialize(Exchange exchange) throws Exception {
+        DBCollection dbCol = calculateCollection(exchange);
+        DBObject query = exchange.getIn().getMandatoryBody(DBObject.class);
+        String targetName = exchange.getIn().getHeader(MongoDbConstants.MATERIALIZED_COLLECTION, endpoint.getMaterializedCollection(), String.class);
+        if (targetName == null) {
+            throw new CamelMongoDbException("MongoDB operation = materialize, no target collection, set the materializedCollection option or the "
+                    + MongoDbConstants.MATERIALIZED_COLLECTION + " header");
+        }
+
+        List<DBObject> pipeline = new ArrayList<DBObject>();
+        if (query instanceof BasicDBList) {
+            for (Object stage : (BasicDBList) query) {
+                pipeline.add((DBObject) stage);
+            }
+        } else {
+            pipeline.add(query);
+        }
+
+        // $out can only write to the database of the source collection
+        DBCollection target = dbCol.getDB().getCollection(targetName);
+        long count = materializer.materialize(dbCol, pipeline, target, createAggregationOptions(exchange));
+
+        Message resultMessage = prepareResponseMessage(exchange, MongoDbOperation.materialize);
+        resultMessage.setBody(target.getFullName());
+        resultMessage.setHeader(MongoDbConstants.MATERIALIZED_COLLECTION, target.getName());
+        resultMessage.setHeader(MongoDbConstants.RECORDS_AFFECTED, count);
     }
+
+    protected AggregationOptions createAggregationOptions(Exchange exchange) {
+        Integer batchSize = exchange.getIn().getHeader(MongoDbConstants.BATCH_SIZE, Integer.class);
+        Boolean allowDiskUse = exchange.getIn().getHeader(MongoDbConstants.ALLOW_DISK_USE, endpoint.isAllowDiskUse(), Boolean.class);
+        Long maxTimeMS = exchange.getIn().getHeader(MongoDbConstants.MAX_TIME_MS, endpoint.getMaxTimeMS(), Long.class);
+
+        AggregationOptions.Builder options = AggregationOptions.builder()
+                .outputMode(AggregationOptions.OutputMode.CURSOR)
+                .allowDiskUse(allowDiskUse);
+        if (batchSize != null) {
+            options.batchSize(batchSize);
+        } else if (endpoint.getBatchSize() > 0) {
+            options.batchSize(endpoint.getBatchSize());
+        }
+        if (maxTimeMS != null && maxTimeMS > 0) {
+            options.maxTime(maxTimeMS, TimeUnit.MILLISECONDS);
+        }
+        return options.build();
+    }
+
     // --------- Convenience methods -----------------------
-    private DB calculateDb(Exchange exchange) throws Exception {
+    protected DB calculateDb(Exchange exchange) throws Exception {
         // dynamic calculation is an option. In most cases it won't be used and we should not penalise all users with running this
         // resolution logic on every Exchange if they won't be using this functionality at all
         if (!endpoint.isDynamicity()) {
@@ -434,7 +1414,7 @@ public class MongoDbProducer extends DefaultProducer {
         return db;
     }
 
-    private DBCollection calculateCollection(Exchange exchange) throws Exception {
+    protected DBCollection calculateCollection(Exchange exchange) throws Exception {
         // dynamic calculation is an option. In most cases it won't be used and we should not penalise all users with running this
         // resolution logic on every Exchange if they won't be using this functionality at all
         if (!endpoint.isDynamicity()) {
@@ -474,11 +1454,105 @@ public class MongoDbProducer extends DefaultProducer {
         return dbCol;
     }
     
-    private boolean calculateBooleanValue(Boolean b) {
+    @SuppressWarnings("rawtypes")
+    private boolean isRawBsonBody(Object body) {
+        if (body instanceof List) {
+            List list = (List) body;
+            return !list.isEmpty() && isRawBsonBody(list.get(0));
+        }
+        return body instanceof byte[] || body instanceof ByteBuffer;
+    }
+
+    private DBObject findOneRaw(DBCollection dbCol, DBObject query, DBObject fieldFilter, DBObject sortBy) {
+        DBCursor cursor = dbCol.find(query, fieldFilter).limit(1).setDecoderFactory(MongoDbRawBsonDecoderFactory.INSTANCE);
+        try {
+            if (sortBy != null) {
+                cursor.sort(sortBy);
+            }
+            return cursor.hasNext() ? cursor.next() : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * In raw BSON mode, documents are returned as their BSON bytes.
+     */
+    private Object toResponseBody(DBObject document) throws IOException {
+        if (document == null || !endpoint.isRawBson()) {
+            return document;
+        }
+        return MongoDbRawBsonDecoderFactory.toByteArray(document);
+    }
+
+    protected DBObject createSingleInsertObject(Object insert) {
+        DBObject insertObject = new BasicDBObject();
+        insertObject.put("message", insert);
+        return insertObject;
+    }
+
+    protected boolean calculateBooleanValue(Boolean b) {
         return b == null ? false : b.booleanValue();      
     }
     
-    private void processAndTransferWriteResult(WriteResult result, Exchange exchange) {
+    private void addBulkWriteModel(BulkWriteOperation bulk, DBObject model, int index) throws CamelMongoDbException {
+        if (model.keySet().size() != 1) {
+            throw new CamelMongoDbException("MongoDB operation = bulkWrite, each model must have exactly one key naming its type, found: " + model.keySet()
+                    + " in model " + index);
+        }
+        String type = model.keySet().iterator().next();
+        Object value = model.get(type);
+        if (!(value instanceof DBObject)) {
+            throw new CamelMongoDbException("MongoDB operation = bulkWrite, model " + index + " of type " + type + " requires a document of arguments");
+        }
+        DBObject args = (DBObject) value;
+
+        if ("insertOne".equals(type)) {
+            bulk.insert(mandatoryBulkArgument(args, type, "document"));
+            return;
+        }
+
+        DBObject filter = mandatoryBulkArgument(args, type, "filter");
+        boolean upsert = Boolean.TRUE.equals(args.get("upsert"));
+        if ("updateOne".equals(type)) {
+            DBObject update = mandatoryBulkArgument(args, type, "update");
+            if (upsert) {
+                bulk.find(filter).upsert().updateOne(update);
+            } else {
+                bulk.find(filter).updateOne(update);
+            }
+        } else if ("updateMany".equals(type)) {
+            DBObject update = mandatoryBulkArgument(args, type, "update");
+            if (upsert) {
+                bulk.find(filter).upsert().update(update);
+            } else {
+                bulk.find(filter).update(update);
+            }
+        } else if ("replaceOne".equals(type)) {
+            DBObject replacement = mandatoryBulkArgument(args, type, "replacement");
+            if (upsert) {
+                bulk.find(filter).upsert().replaceOne(replacement);
+            } else {
+                bulk.find(filter).replaceOne(replacement);
+            }
+        } else if ("deleteOne".equals(type)) {
+            bulk.find(filter).removeOne();
+        } else if ("deleteMany".equals(type)) {
+            bulk.find(filter).remove();
+        } else {
+            throw new CamelMongoDbException("MongoDB operation = bulkWrite, unsupported model type: " + type);
+        }
+    }
+
+    private DBObject mandatoryBulkArgument(DBObject args, String type, String name) throws CamelMongoDbException {
+        Object value = args.get(name);
+        if (!(value instanceof DBObject)) {
+            throw new CamelMongoDbException("MongoDB operation = bulkWrite, model of type " + type + " requires a document in field '" + name + "'");
+        }
+        return (DBObject) value;
+    }
+
+    protected void processAndTransferWriteResult(Object result, Exchange exchange) {
         // determine where to set the WriteResult: as the OUT body or as an IN message header
         if (endpoint.isWriteResultAsHeader()) {
             exchange.getOut().setHeader(MongoDbConstants.WRITERESULT, result);
@@ -487,7 +1561,7 @@ public class MongoDbProducer extends DefaultProducer {
         }
     }
 
-    private WriteConcern extractWriteConcern(Exchange exchange) throws CamelMongoDbException {
+    protected WriteConcern extractWriteConcern(Exchange exchange) throws CamelMongoDbException {
         Object o = exchange.getIn().getHeader(MongoDbConstants.WRITECONCERN);
 
         if (o == null) {
@@ -508,7 +1582,7 @@ public class MongoDbProducer extends DefaultProducer {
     }
 
     @SuppressWarnings("rawtypes")
-    private List<DBObject> attemptConvertToList(List insertList, Exchange exchange) throws CamelMongoDbException {
+    protected List<DBObject> attemptConvertToList(List insertList, Exchange exchange) throws CamelMongoDbException {
         List<DBObject> dbObjectList = new ArrayList<DBObject>(insertList.size());
         TypeConverter converter = exchange.getContext().getTypeConverter();
         for (Object item : insertList) {
@@ -522,7 +1596,7 @@ public class MongoDbProducer extends DefaultProducer {
         return dbObjectList;
     }
 
-    private Message prepareResponseMessage(Exchange exchange, MongoDbOperation operation) {
+    protected Message prepareResponseMessage(Exchange exchange, MongoDbOperation operation) {
         Message answer = exchange.getOut();
         MessageHelper.copyHeaders(exchange.getIn(), answer, false);
         if (isWriteOperation(operation) && endpoint.isWriteResultAsHeader()) {
@@ -535,4 +1609,53 @@ public class MongoDbProducer extends DefaultProducer {
         return MongoDbComponent.WRITE_OPERATIONS.contains(operation);
     }
 
+    @ManagedAttribute(description = "Number of lookups answered by the cache")
+    public long getCacheHits() {
+        return queryCache != null ? queryCache.getHits() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of lookups the cache could not answer")
+    public long getCacheMisses() {
+        return queryCache != null ? queryCache.getMisses() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of cache entries evicted, expired or invalidated")
+    public long getCacheEvictions() {
+        return queryCache != null ? queryCache.getEvictions() : 0;
+    }
+
+    @ManagedAttribute(description = "Number of entries in the cache")
+    public int getCacheEntries() {
+        return queryCache != null ? queryCache.getSize() : 0;
+    }
+
+    @ManagedOperation(description = "Clears the cache")
+    public void clearCache() {
+        if (queryCache != null) {
+            queryCache.clear();
+        }
+    }
+
+    @ManagedAttribute(description = "Number of operations slower than the slow query threshold")
+    public long getSlowQueryCount() {
+        return instrumentation != null ? instrumentation.getSlowQueryCount() : 0;
+    }
+
+    @ManagedOperation(description = "The most recent slow operations, with their query shape and, when explained, winning plan")
+    public List<String> slowQueries() {
+        return instrumentation != null ? instrumentation.getSlowQueries() : Collections.<String>emptyList();
+    }
+
+    @ManagedOperation(description = "Count, mean and max latency, and number of slow calls per operation")
+    public List<String> operationStats() {
+        return instrumentation != null ? instrumentation.getOperationStats() : Collections.<String>emptyList();
+    }
+
+    @ManagedOperation(description = "Resets the operation statistics and the slow queries")
+    public void resetOperationStats() {
+        if (instrumentation != null) {
+            instrumentation.reset();
+        }
+    }
+
 }
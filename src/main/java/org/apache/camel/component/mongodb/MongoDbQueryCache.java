@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mongodb.BasicDBObject;
+
+import org.apache.camel.util.LRUCache;
+
+/**
+ * Read-through cache of the single-document lookups (findById, findOneByQuery) of an endpoint, bounded in size (LRU) and in time (TTL).
+ * <p/>
+ * Writes invalidate a whole collection at once by bumping its generation: an entry is only served if it was loaded in the current
+ * generation of its collection. A lookup racing with a write captures the generation before querying the server, so whatever it
+ * loads is never served once the write has completed. Cached documents are copied in and out, so routes cannot alter them.
+ */
+public class MongoDbQueryCache {
+
+    /**
+     * Returned by {@link #get(String, String)} when the cache cannot answer.
+     */
+    public static final Object MISS = new Object();
+
+    private static final Object NULL = new Object();
+
+    private final LRUCache<String, Entry> cache;
+    private final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+    private final long ttl;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    private static final class Entry {
+        private final Object value;
+        private final long generation;
+        private final long expiresAt;
+
+        private Entry(Object value, long generation, long expiresAt) {
+            this.value = value;
+            this.generation = generation;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * @param maxSize the maximum number of entries
+     * @param ttl the time to live of the entries in milliseconds, 0 for no expiry
+     */
+    public MongoDbQueryCache(int maxSize, long ttl) {
+        this.cache = new LRUCache<String, Entry>(maxSize);
+        this.ttl = ttl;
+    }
+
+    /**
+     * @return the current generation of the collection, to be passed to {@link #put(String, String, Object, long)} with the value
+     *         loaded after this call
+     */
+    public long generation(String collection) {
+        return generationOf(collection).get();
+    }
+
+    /**
+     * @return a copy of the cached value, null if the document does not exist, or {@link #MISS}
+     */
+    public Object get(String collection, String key) {
+        String cacheKey = collection + '\u0000' + key;
+        Entry entry = cache.get(cacheKey);
+        if (entry != null && (entry.generation != generation(collection) || ttl > 0 && entry.expiresAt < System.currentTimeMillis())) {
+            cache.remove(cacheKey);
+            expired.incrementAndGet();
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return MISS;
+        }
+        hits.incrementAndGet();
+        return entry.value == NULL ? null : copy(entry.value);
+    }
+
+    /**
+     * Caches the value if it is a document, raw BSON bytes or null. Other values are ignored.
+     */
+    public void put(String collection, String key, Object value, long generation) {
+        if (value != null && !(value instanceof BasicDBObject) && !(value instanceof byte[])) {
+            return;
+        }
+        long expiresAt = ttl > 0 ? System.currentTimeMillis() + ttl : Long.MAX_VALUE;
+        cache.put(collection + '\u0000' + key, new Entry(value == null ? NULL : copy(value), generation, expiresAt));
+    }
+
+    /**
+     * Invalidates all the entries of the collection.
+     */
+    public void invalidate(String collection) {
+        generationOf(collection).incrementAndGet();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of entries dropped because the cache was full, or because they had expired or been invalidated
+     */
+    public long getEvictions() {
+        return cache.getEvicted() + expired.get();
+    }
+
+    public int getSize() {
+        return cache.size();
+    }
+
+    private AtomicLong generationOf(String collection) {
+        AtomicLong answer = generations.get(collection);
+        if (answer == null) {
+            AtomicLong created = new AtomicLong();
+            answer = generations.putIfAbsent(collection, created);
+            if (answer == null) {
+                answer = created;
+            }
+        }
+        return answer;
+    }
+
+    private static Object copy(Object value) {
+        if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        return ((BasicDBObject) value).copy();
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+
+import org.apache.camel.Exchange;
+
+/**
+ * A query parsed once, with named parameters bound per exchange. Parameters are written <tt>:name</tt> in place of a JSON value, e.g.
+ * <tt>{"status": :status, "ts": {"$gt": :since}}</tt>, and are bound to the header, or else the exchange property, of the same name.
+ * Values are bound as they are, so dates, ObjectIds and numbers keep their type.
+ */
+public final class MongoDbQueryTemplate {
+
+    private static final String MARKER = "\u0000param:";
+
+    private final String source;
+    private final DBObject template;
+    private final Set<String> parameters;
+
+    private MongoDbQueryTemplate(String source, DBObject template, Set<String> parameters) {
+        this.source = source;
+        this.template = template;
+        this.parameters = parameters;
+    }
+
+    /**
+     * @throws CamelMongoDbException if the template is not valid JSON once its parameters are replaced
+     */
+    public static MongoDbQueryTemplate parse(String source) throws CamelMongoDbException {
+        Set<String> parameters = new LinkedHashSet<String>();
+        StringBuilder json = new StringBuilder(source.length() + 16);
+        boolean inString = false;
+        char quote = 0;
+        // the last significant character outside of strings, to tell value positions from key separators
+        char previous = 0;
+        int i = 0;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (inString) {
+                json.append(c);
+                if (c == '\\' && i + 1 < source.length()) {
+                    json.append(source.charAt(++i));
+                } else if (c == quote) {
+                    inString = false;
+                    previous = c;
+                }
+                i++;
+            } else if (c == '"' || c == '\'') {
+                inString = true;
+                quote = c;
+                json.append(c);
+                i++;
+            } else if (c == ':' && (previous == ':' || previous == '[' || previous == ',')
+                    && i + 1 < source.length() && Character.isJavaIdentifierStart(source.charAt(i + 1))) {
+                int end = i + 1;
+                while (end < source.length() && Character.isJavaIdentifierPart(source.charAt(end))) {
+                    end++;
+                }
+                String name = source.substring(i + 1, end);
+                parameters.add(name);
+                json.append('"').append(MARKER).append(name).append('"');
+                previous = '"';
+                i = end;
+            } else {
+                json.append(c);
+                if (!Character.isWhitespace(c)) {
+                    previous = c;
+                }
+                i++;
+            }
+        }
+
+        Object parsed;
+        try {
+            parsed = JSON.parse(json.toString());
+        } catch (Exception e) {
+            throw new CamelMongoDbException("Invalid query template: " + source, e);
+        }
+        if (!(parsed instanceof DBObject)) {
+            throw new CamelMongoDbException("Query template is not a JSON document: " + source);
+        }
+        return new MongoDbQueryTemplate(source, (DBObject) parsed, parameters);
+    }
+
+    /**
+     * @return the names of the parameters, in order of appearance
+     */
+    public Set<String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Creates the query of the exchange.
+     *
+     * @throws CamelMongoDbException if a parameter is neither a header nor a property of the exchange
+     */
+    public DBObject bind(Exchange exchange) throws CamelMongoDbException {
+        return (DBObject) bind(template, exchange);
+    }
+
+    private Object bind(Object value, Exchange exchange) throws CamelMongoDbException {
+        if (value instanceof String && ((String) value).startsWith(MARKER)) {
+            String name = ((String) value).substring(MARKER.length());
+            Object bound = exchange.getIn().getHeader(name);
+            if (bound == null && !exchange.getIn().getHeaders().containsKey(name)) {
+                bound = exchange.getProperty(name);
+                if (bound == null && !exchange.getProperties().containsKey(name)) {
+                    throw new CamelMongoDbException("No header nor property " + name + " to bind in query template " + source);
+                }
+            }
+            return bound;
+        } else if (value instanceof BasicDBList) {
+            BasicDBList answer = new BasicDBList();
+            for (Object item : (List<?>) value) {
+                answer.add(bind(item, exchange));
+            }
+            return answer;
+        } else if (value instanceof DBObject) {
+            BasicDBObject answer = new BasicDBObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) ((DBObject) value).toMap()).entrySet()) {
+                answer.put((String) entry.getKey(), bind(entry.getValue(), exchange));
+            }
+            return answer;
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBDecoder;
+import com.mongodb.DBDecoderFactory;
+import com.mongodb.DBObject;
+import com.mongodb.LazyDBCallback;
+import com.mongodb.LazyDBDecoder;
+import com.mongodb.LazyDBObject;
+import org.bson.BasicBSONEncoder;
+import org.bson.LazyBSONObject;
+import org.bson.types.ObjectId;
+
+/**
+ * Decoder factory for the raw BSON mode (see {@link MongoDbEndpoint#setRawBson(boolean)}). Documents read from the server are
+ * kept as the bytes received from the wire and are only decoded lazily, field by field, if someone asks for a field (e.g. tail
+ * tracking reading its increasing field). Moving documents around therefore costs a byte copy instead of a full decode and re-encode.
+ */
+public class MongoDbRawBsonDecoderFactory implements DBDecoderFactory {
+
+    public static final MongoDbRawBsonDecoderFactory INSTANCE = new MongoDbRawBsonDecoderFactory();
+
+    private static final byte OBJECT_ID_TYPE = 0x07;
+    private static final byte[] ID_ELEMENT_NAME = {'_', 'i', 'd', 0};
+
+    @Override
+    public DBDecoder create() {
+        return new RawBsonDecoder();
+    }
+
+    /**
+     * Returns the BSON bytes of the document, without decoding it if it was read in raw mode.
+     */
+    public static byte[] toByteArray(DBObject dbObject) throws IOException {
+        if (dbObject instanceof RawBsonDBObject) {
+            return ((RawBsonDBObject) dbObject).toByteArray();
+        } else if (dbObject instanceof LazyBSONObject) {
+            LazyBSONObject lazy = (LazyBSONObject) dbObject;
+            ByteArrayOutputStream answer = new ByteArrayOutputStream(lazy.getBSONSize());
+            lazy.pipe(answer);
+            return answer.toByteArray();
+        }
+        return new BasicBSONEncoder().encode(dbObject);
+    }
+
+    /**
+     * Wraps BSON bytes received from a route into a document that is written to the server as is. The driver needs every inserted
+     * document to carry an _id, so if it is missing one is spliced into the bytes, still without decoding the document.
+     */
+    public static DBObject fromBytes(Object body) {
+        byte[] bytes;
+        if (body instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) body).duplicate();
+            bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+        } else {
+            bytes = (byte[]) body;
+        }
+
+        DBObject answer = new LazyDBObject(bytes, new LazyDBCallback(null));
+        if (answer.get("_id") == null) {
+            answer = new LazyDBObject(prependObjectId(bytes, new ObjectId()), new LazyDBCallback(null));
+        }
+        return answer;
+    }
+
+    private static byte[] prependObjectId(byte[] document, ObjectId id) {
+        // document := int32 length, elements, 0x00. The new _id element goes right after the length
+        byte[] oid = id.toByteArray();
+        int elementLength = 1 + ID_ELEMENT_NAME.length + oid.length;
+        int length = document.length + elementLength;
+        byte[] answer = new byte[length];
+        answer[0] = (byte) length;
+        answer[1] = (byte) (length >>> 8);
+        answer[2] = (byte) (length >>> 16);
+        answer[3] = (byte) (length >>> 24);
+        answer[4] = OBJECT_ID_TYPE;
+        System.arraycopy(ID_ELEMENT_NAME, 0, answer, 5, ID_ELEMENT_NAME.length);
+        System.arraycopy(oid, 0, answer, 5 + ID_ELEMENT_NAME.length, oid.length);
+        System.arraycopy(document, 4, answer, 4 + elementLength, document.length - 4);
+        return answer;
+    }
+
+    private static final class RawBsonDecoder extends LazyDBDecoder {
+        @Override
+        public DBObject decode(byte[] b, DBCollection collection) {
+            return new RawBsonDBObject(b, new LazyDBCallback(collection));
+        }
+    }
+
+    /**
+     * A lazy document giving access to its underlying bytes.
+     */
+    private static final class RawBsonDBObject extends LazyDBObject {
+        RawBsonDBObject(byte[] bytes, LazyDBCallback callback) {
+            super(bytes, callback);
+        }
+
+        byte[] toByteArray() {
+            byte[] bytes = getBytes();
+            int size = getBSONSize();
+            // the decoder is usually handed a buffer holding exactly one document, which can then be passed on without a copy
+            if (getOffset() == 0 && bytes.length == size) {
+                return bytes;
+            }
+            return Arrays.copyOfRange(bytes, getOffset(), getOffset() + size);
+        }
+    }
+}
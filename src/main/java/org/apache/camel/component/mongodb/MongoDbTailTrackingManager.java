@@ -16,6 +16,13 @@
  */
 package org.apache.camel.component.mongodb;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
 import com.mongodb.BasicDBObject;
 import com.mongodb.BasicDBObjectBuilder;
 import com.mongodb.DBCollection;
@@ -30,12 +37,47 @@ public class MongoDbTailTrackingManager {
 
     private static final Logger LOG = LoggerFactory.getLogger(MongoDbTailTrackingManager.class);
     
-    public Object lastVal;
+    public volatile Object lastVal;
 
     private final Mongo connection;
     private final MongoDbTailTrackingConfig config;
     private DBCollection dbCol;
     private DBObject trackingObj;
+    private final Deque<InFlight> inFlight = new ArrayDeque<InFlight>();
+
+    // write-behind checkpoints
+    private final Object persistLock = new Object();
+    private Object persistedVal;
+    private boolean fenced;
+    private ScheduledExecutorService checkpointExecutor;
+    private int persistEveryN;
+    private final AtomicLong sinceCheckpoint = new AtomicLong();
+    private final AtomicBoolean checkpointPending = new AtomicBoolean();
+    private final Runnable checkpoint = new Runnable() {
+        @Override
+        public void run() {
+            checkpointPending.set(false);
+            try {
+                persistToStore();
+            } catch (Exception e) {
+                LOG.warn("Could not persist lastVal=" + lastVal + " to store, will retry on next checkpoint", e);
+            }
+        }
+    };
+
+    /**
+     * A document handed over for processing, in the order it was read.
+     */
+    private static final class InFlight {
+        private final Object value;
+        private final int documents;
+        private boolean completed;
+
+        private InFlight(Object value, int documents) {
+            this.value = value;
+            this.documents = documents;
+        }
+    }
     
     public MongoDbTailTrackingManager(Mongo connection, MongoDbTailTrackingConfig config) {
         this.connection = connection;
@@ -58,26 +100,60 @@ public class MongoDbTailTrackingManager {
         trackingObj = new BasicDBObject("_id", trackingObj.get("_id"));
     }
     
-    public synchronized void persistToStore() {
-        if (!config.persistent || lastVal == null) {
+    /**
+     * Persists lastVal in the background every persistEveryN documents and/or every persistInterval milliseconds, on the given
+     * executor. Checkpoints requested while one is pending are coalesced, and each persists the lastVal current when it runs.
+     */
+    public void startCheckpointing(ScheduledExecutorService executor, int persistEveryN, long persistInterval) {
+        if (!config.persistent) {
             return;
         }
-        
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Persisting lastVal={} to store, collection: {}", lastVal, config.collection);
+        this.checkpointExecutor = executor;
+        this.persistEveryN = persistEveryN;
+        if (persistInterval > 0) {
+            executor.scheduleWithFixedDelay(checkpoint, persistInterval, persistInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void persistToStore() {
+        if (!config.persistent) {
+            return;
+        }
+
+        // serialized, and reading lastVal once inside the lock, so that a slower call never overwrites a more recent value
+        synchronized (persistLock) {
+            Object value = lastVal;
+            if (fenced || value == null || value.equals(persistedVal)) {
+                return;
+            }
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Persisting lastVal={} to store, collection: {}", value, config.collection);
+            }
+
+            DBObject updateObj = BasicDBObjectBuilder.start().add("$set", new BasicDBObject(config.field, value)).get();
+            dbCol.update(trackingObj, updateObj, false, false, WriteConcern.SAFE);
+            persistedVal = value;
         }
-        
-        DBObject updateObj = BasicDBObjectBuilder.start().add("$set", new BasicDBObject(config.field, lastVal)).get();
-        dbCol.update(trackingObj, updateObj, false, false, WriteConcern.SAFE);
-        trackingObj = dbCol.findOne();
     }
     
+    /**
+     * Stops persisting lastVal for good, once the position may belong to another consumer, e.g. after losing the lease of a
+     * partition. A persist in progress completes before this returns.
+     */
+    public void fence() {
+        synchronized (persistLock) {
+            fenced = true;
+        }
+    }
+
     public synchronized Object recoverFromStore() {
         if (!config.persistent) {
             return null;
         }
         
         lastVal = dbCol.findOne(trackingObj).get(config.field);
+        persistedVal = lastVal;
         
         if (LOG.isDebugEnabled()) {
             LOG.debug("Recovered lastVal={} from store, collection: {}", lastVal, config.collection);
@@ -87,13 +163,68 @@ public class MongoDbTailTrackingManager {
     }
     
     public void setLastVal(DBObject o) {
+        setLastVal(o, 1);
+    }
+
+    /**
+     * Advances lastVal to the last of the given number of documents processed at once, e.g. a batch, which all count towards
+     * persistEveryN.
+     */
+    public void setLastVal(DBObject last, int documents) {
         if (config.increasingField == null) {
             return;
         }
         
-        lastVal = o.get(config.increasingField);
+        lastVal = last.get(config.increasingField);
+        onAdvanced(documents);
     }
     
+    /**
+     * Registers a document read from the cursor and handed over for processing, when documents are processed concurrently.
+     *
+     * @return the handle to {@link #complete(Object)} the document with once it has been processed
+     */
+    public Object track(DBObject o) {
+        return track(o, 1);
+    }
+
+    /**
+     * Registers the last of the given number of documents handed over for processing at once, e.g. a batch.
+     *
+     * @return the handle to {@link #complete(Object)} the documents with once they have been processed
+     */
+    public synchronized Object track(DBObject last, int documents) {
+        InFlight answer = new InFlight(config.increasingField == null ? null : last.get(config.increasingField), documents);
+        inFlight.addLast(answer);
+        return answer;
+    }
+
+    /**
+     * Marks a tracked document as processed. lastVal only advances to the last document of the contiguous run of processed documents
+     * that were read first (the low watermark), so that a restart never skips a document that is still being processed.
+     */
+    public synchronized void complete(Object handle) {
+        ((InFlight) handle).completed = true;
+        int advanced = 0;
+        while (!inFlight.isEmpty() && inFlight.peekFirst().completed) {
+            InFlight done = inFlight.pollFirst();
+            if (config.increasingField != null) {
+                lastVal = done.value;
+            }
+            advanced += done.documents;
+        }
+        onAdvanced(advanced);
+    }
+
+    private void onAdvanced(int documents) {
+        if (persistEveryN > 0 && documents > 0 && sinceCheckpoint.addAndGet(documents) >= persistEveryN) {
+            sinceCheckpoint.set(0);
+            if (checkpointPending.compareAndSet(false, true)) {
+                checkpointExecutor.execute(checkpoint);
+            }
+        }
+    }
+
     public String getIncreasingFieldName() {
         return config.increasingField;
     }
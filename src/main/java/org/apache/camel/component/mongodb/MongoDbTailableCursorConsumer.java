@@ -16,18 +16,31 @@
  */
 package org.apache.camel.component.mongodb;
 
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.camel.Processor;
 import org.apache.camel.impl.DefaultConsumer;
 
 /**
  * The MongoDb consumer.
+ * <p/>
+ * With {@link MongoDbEndpoint#getPartitions()} greater than 1, the documents are split into partitions by the hash of their
+ * partitionKey, each one tailed by its own thread with its own position in the tail tracking collection. The consumer processes
+ * either the partition set by partitionIndex, or the partitions it leases through {@link MongoDbPartitionLeases}.
  */
 public class MongoDbTailableCursorConsumer extends DefaultConsumer {
     private final MongoDbEndpoint endpoint;
     private ExecutorService executor;
+    private ScheduledExecutorService checkpointExecutor;
     private MongoDbTailingProcess tailingProcess;
+    private final Map<Integer, MongoDbTailingProcess> partitionProcesses = new ConcurrentHashMap<Integer, MongoDbTailingProcess>();
+    private ScheduledExecutorService leaseExecutor;
+    private MongoDbPartitionLeases partitionLeases;
 
     public MongoDbTailableCursorConsumer(MongoDbEndpoint endpoint, Processor processor) {
         super(endpoint, processor);
@@ -37,9 +50,24 @@ public class MongoDbTailableCursorConsumer extends DefaultConsumer {
     @Override
     protected void doStop() throws Exception {
         super.doStop();
+        if (leaseExecutor != null) {
+            endpoint.getCamelContext().getExecutorServiceManager().shutdownGraceful(leaseExecutor);
+            leaseExecutor = null;
+        }
         if (tailingProcess != null) {
             tailingProcess.stop();
         }
+        for (Integer partition : new ArrayList<Integer>(partitionProcesses.keySet())) {
+            stopPartition(partition);
+        }
+        if (partitionLeases != null) {
+            partitionLeases.releaseAll();
+            partitionLeases = null;
+        }
+        if (checkpointExecutor != null) {
+            endpoint.getCamelContext().getExecutorServiceManager().shutdownGraceful(checkpointExecutor);
+            checkpointExecutor = null;
+        }
         if (executor != null) {
             executor.shutdown();
             executor = null;
@@ -49,11 +77,34 @@ public class MongoDbTailableCursorConsumer extends DefaultConsumer {
     @Override
     protected void doStart() throws Exception {
         super.doStart();
-        executor = endpoint.getCamelContext().getExecutorServiceManager().newFixedThreadPool(this, endpoint.getEndpointUri(), 1);
-        MongoDbTailTrackingManager trackingManager = initTailTracking();
-        tailingProcess = new MongoDbTailingProcess(endpoint, this, trackingManager);
-        tailingProcess.initializeProcess();
-        executor.execute(tailingProcess);
+        int partitions = endpoint.getPartitions();
+        int threads = partitions > 1 && endpoint.getPartitionIndex() < 0 ? partitions : 1;
+        executor = endpoint.getCamelContext().getExecutorServiceManager().newFixedThreadPool(this, endpoint.getEndpointUri(), threads);
+        if (endpoint.isPersistentTailTracking() && (endpoint.getPersistEveryN() > 0 || endpoint.getPersistInterval() > 0)) {
+            checkpointExecutor = endpoint.getCamelContext().getExecutorServiceManager()
+                    .newSingleThreadScheduledExecutor(this, endpoint.getEndpointUri() + "-checkpoint");
+        }
+
+        if (partitions > 1 && endpoint.getPartitionIndex() >= 0) {
+            startPartition(endpoint.getPartitionIndex());
+        } else if (partitions > 1) {
+            MongoDbTailTrackingConfig config = endpoint.getTailTrackingConfig();
+            partitionLeases = new MongoDbPartitionLeases(this, endpoint.getDb().getSisterDB(config.db)
+                    .getCollection(MongoDbPartitionLeases.COLLECTION), config.persistentId, endpoint.getCamelContext().getUuidGenerator()
+                    .generateUuid(), partitions, endpoint.getLeaseTime());
+            partitionLeases.initialize();
+            partitionLeases.rebalance();
+            leaseExecutor = endpoint.getCamelContext().getExecutorServiceManager()
+                    .newSingleThreadScheduledExecutor(this, endpoint.getEndpointUri() + "-leases");
+            long renewal = Math.max(1, endpoint.getLeaseTime() / 3);
+            leaseExecutor.scheduleWithFixedDelay(partitionLeases, renewal, renewal, TimeUnit.MILLISECONDS);
+        } else {
+            MongoDbTailTrackingManager trackingManager = initTailTracking();
+            startCheckpointing(trackingManager);
+            tailingProcess = new MongoDbTailingProcess(endpoint, this, trackingManager);
+            tailingProcess.initializeProcess();
+            executor.execute(tailingProcess);
+        }
     }
     
     protected MongoDbTailTrackingManager initTailTracking() throws Exception {
@@ -61,5 +112,50 @@ public class MongoDbTailableCursorConsumer extends DefaultConsumer {
         answer.initialize();
         return answer;
     }
-    
+
+    private void startCheckpointing(MongoDbTailTrackingManager trackingManager) {
+        if (checkpointExecutor != null) {
+            trackingManager.startCheckpointing(checkpointExecutor, endpoint.getPersistEveryN(), endpoint.getPersistInterval());
+        }
+    }
+
+    /**
+     * Starts tailing a partition, from the position persisted for it under persistentId-p&lt;partition&gt;.
+     */
+    protected void startPartition(int partition) throws Exception {
+        MongoDbTailTrackingConfig config = endpoint.getTailTrackingConfig();
+        MongoDbTailTrackingManager trackingManager = new MongoDbTailTrackingManager(endpoint.getMongoConnection(), new MongoDbTailTrackingConfig(
+                config.persistent, config.increasingField, config.db, config.collection, config.field, config.persistentId + "-p" + partition));
+        trackingManager.initialize();
+        startCheckpointing(trackingManager);
+        MongoDbTailingProcess process = new MongoDbTailingProcess(endpoint, this, trackingManager, partition);
+        process.initializeProcess();
+        partitionProcesses.put(partition, process);
+        executor.execute(process);
+    }
+
+    /**
+     * Stops tailing a partition, persisting its position.
+     */
+    protected void stopPartition(int partition) throws Exception {
+        stopPartition(partition, false);
+    }
+
+    /**
+     * Stops tailing a partition.
+     *
+     * @param leaseLost true if the lease of the partition was lost, in which case its position is not persisted, as the consumer
+     *            which took the partition over may have moved it further already
+     */
+    protected void stopPartition(int partition, boolean leaseLost) throws Exception {
+        MongoDbTailingProcess process = partitionProcesses.remove(partition);
+        if (process == null) {
+            return;
+        }
+        if (leaseLost) {
+            process.stopFenced();
+        } else {
+            process.stop();
+        }
+    }
 }
@@ -17,6 +17,16 @@
 
 package org.apache.camel.component.mongodb;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
 import com.mongodb.BasicDBObject;
 import com.mongodb.Bytes;
 import com.mongodb.DBCollection;
@@ -25,6 +35,8 @@ import com.mongodb.DBObject;
 import com.mongodb.MongoCursorNotFoundException;
 
 import org.apache.camel.Exchange;
+import org.bson.BasicBSONEncoder;
+import org.bson.types.ObjectId;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,18 +56,54 @@ public class MongoDbTailingProcess implements Runnable {
     // create local, final copies of these variables for increased performance
     private final long cursorRegenerationDelay;
     private final boolean cursorRegenerationDelayEnabled;
+    private final long maxBatchDelay;
+    private final int maxBatchSize;
+    private final int partition;
+    private final int partitions;
+    private final String partitionKey;
     
     private DBCursor cursor;
     private MongoDbTailTrackingManager tailTracking;
-    
+    // the increasing field of the last document read, which is ahead of the tracked lastVal while documents are being processed
+    private Object lastReadVal;
+
+    // pipelined mode: the tailing thread only reads, workers process
+    private final int workers;
+    private BlockingQueue<Pending> queue;
+    private ExecutorService workerExecutor;
+    private volatile boolean draining;
+
+    private static final class Pending {
+        private final Exchange exchange;
+        private final Object handle;
+
+        private Pending(Exchange exchange, Object handle) {
+            this.exchange = exchange;
+            this.handle = handle;
+        }
+    }
 
     public MongoDbTailingProcess(MongoDbEndpoint endpoint, MongoDbTailableCursorConsumer consumer, MongoDbTailTrackingManager tailTrack) {
+        this(endpoint, consumer, tailTrack, -1);
+    }
+
+    /**
+     * @param partition the partition of the documents to process, out of {@link MongoDbEndpoint#getPartitions()}, or -1 for all
+     */
+    public MongoDbTailingProcess(MongoDbEndpoint endpoint, MongoDbTailableCursorConsumer consumer, MongoDbTailTrackingManager tailTrack,
+            int partition) {
         this.endpoint = endpoint;
         this.consumer = consumer;
         this.dbCol = endpoint.getDbCollection();
         this.tailTracking = tailTrack;
         this.cursorRegenerationDelay = endpoint.getCursorRegenerationDelay();
         this.cursorRegenerationDelayEnabled = !(this.cursorRegenerationDelay == 0);
+        this.workers = endpoint.getConcurrentConsumers();
+        this.partition = partition;
+        this.partitions = endpoint.getPartitions();
+        this.partitionKey = endpoint.getPartitionKey();
+        this.maxBatchDelay = endpoint.getMaxBatchDelay();
+        this.maxBatchSize = Math.max(1, endpoint.getMaxBatchSize());
     }
 
     public DBCursor getCursor() {
@@ -79,6 +127,7 @@ public class MongoDbTailingProcess implements Runnable {
         try {
             // recover the last value from the store if it exists
             tailTracking.recoverFromStore();
+            lastReadVal = tailTracking.lastVal;
             cursor = initializeCursor();
         } catch (Exception e) {
             throw new CamelMongoDbException("Exception ocurred while initializing tailable cursor", e);
@@ -87,7 +136,15 @@ public class MongoDbTailingProcess implements Runnable {
         if (cursor == null) {
             throw new CamelMongoDbException("Tailable cursor was not initialized, or cursor returned is dead on arrival");
         }
-        
+
+        if (workers > 1) {
+            queue = new ArrayBlockingQueue<Pending>(endpoint.getTailingQueueSize());
+            workerExecutor = endpoint.getCamelContext().getExecutorServiceManager()
+                    .newFixedThreadPool(consumer, endpoint.getEndpointUri() + "-worker", workers);
+            for (int i = 0; i < workers; i++) {
+                workerExecutor.execute(new Worker());
+            }
+        }
     }
 
     /**
@@ -119,6 +176,14 @@ public class MongoDbTailingProcess implements Runnable {
         stopped = true;
     }
 
+    /**
+     * Stops without persisting the position anymore, as another consumer may have taken it over already.
+     */
+    protected void stopFenced() throws Exception {
+        tailTracking.fence();
+        stop();
+    }
+
     protected void stop() throws Exception {
         if (LOG.isInfoEnabled()) {
             LOG.info("Stopping MongoDB Tailable Cursor consumer, bound to collection: {}", "db: " + dbCol.getDB() + ", col: " + dbCol.getName());
@@ -130,6 +195,13 @@ public class MongoDbTailingProcess implements Runnable {
         }
         // wait until the main loop acknowledges the stop
         while (!stopped) { }
+        if (workerExecutor != null) {
+            // let the workers process what was read, so that it is accounted for in the persisted lastVal
+            draining = true;
+            endpoint.getCamelContext().getExecutorServiceManager().shutdownGraceful(workerExecutor);
+            workerExecutor = null;
+            tailTracking.persistToStore();
+        }
         if (LOG.isInfoEnabled()) {
             LOG.info("Stopped MongoDB Tailable Cursor consumer, bound to collection: {}", "db: " + dbCol.getDB() + ", col: " + dbCol.getName());
         }
@@ -141,18 +213,17 @@ public class MongoDbTailingProcess implements Runnable {
     private void doRun() {
         // while the cursor has more values, keepRunning is true and the cursorId is not 0, which symbolizes that the cursor is dead
         try {
-            while (cursor.hasNext() && cursor.getCursorId() != 0  && keepRunning) {
-                DBObject dbObj = cursor.next();
-                Exchange exchange = endpoint.createMongoDbExchange(dbObj);
-                try {
-                    if (LOG.isTraceEnabled()) {
-                        LOG.trace("Sending exchange: {}, ObjectId: {}", exchange, dbObj.get("_id"));
+            if (maxBatchDelay > 0) {
+                doRunBatches();
+            } else {
+                while (cursor.hasNext() && cursor.getCursorId() != 0  && keepRunning) {
+                    DBObject dbObj = cursor.next();
+                    if (!isInPartition(dbObj)) {
+                        skip(dbObj);
+                    } else if (!dispatch(endpoint.createMongoDbExchange(dbObj), dbObj, 1)) {
+                        break;
                     }
-                    consumer.getProcessor().process(exchange);
-                } catch (Exception e) {
-                    // do nothing
                 }
-                tailTracking.setLastVal(dbObj);
             }
         } catch (MongoCursorNotFoundException e) {
             // we only log the warning if we are not stopping, otherwise it is expected because the stop() method kills the cursor just in case it is blocked
@@ -160,16 +231,144 @@ public class MongoDbTailingProcess implements Runnable {
             if (keepRunning) {
                 LOG.debug("Cursor not found exception from MongoDB, will regenerate cursor. This is normal behaviour with tailable cursors.", e);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            keepRunning = false;
         }
 
         // the loop finished, persist the lastValue just in case we are shutting down
-        // TODO: perhaps add a functionality to persist every N records
+        // (persistEveryN and persistInterval checkpoint it meanwhile)
         tailTracking.persistToStore();
     }
 
+    /**
+     * Accumulates the documents into batches of up to maxBatchSize documents, or of those read within maxBatchDelay of the first one.
+     */
+    private void doRunBatches() throws InterruptedException {
+        List<DBObject> batch = new ArrayList<DBObject>();
+        // the last document read, possibly out of the partition, up to which the batch is tracked
+        DBObject last = null;
+        long deadline = 0;
+        while (keepRunning) {
+            DBObject dbObj;
+            if (batch.isEmpty()) {
+                // waits for the first document of the batch
+                if (!cursor.hasNext() || cursor.getCursorId() == 0) {
+                    break;
+                }
+                dbObj = cursor.next();
+                if (!isInPartition(dbObj)) {
+                    skip(dbObj);
+                    continue;
+                }
+                deadline = System.currentTimeMillis() + maxBatchDelay;
+            } else {
+                if (cursor.getCursorId() == 0) {
+                    break;
+                }
+                // returns null, rather than blocking, when no document arrived within the server's await time
+                dbObj = cursor.tryNext();
+                if (dbObj != null && !isInPartition(dbObj)) {
+                    last = dbObj;
+                    dbObj = null;
+                }
+            }
+            if (dbObj != null) {
+                batch.add(dbObj);
+                last = dbObj;
+            }
+            if (batch.size() >= maxBatchSize || System.currentTimeMillis() >= deadline) {
+                if (!dispatch(endpoint.createMongoDbExchange(batch), last, batch.size())) {
+                    return;
+                }
+                batch = new ArrayList<DBObject>();
+            }
+        }
+        // the cursor died: deliver what was read before regenerating it. On stop, the batch is dropped; as the tracked lastVal did not
+        // advance, its documents are read again on restart
+        if (!batch.isEmpty() && keepRunning) {
+            dispatch(endpoint.createMongoDbExchange(batch), last, batch.size());
+        }
+    }
+
+    /**
+     * @return true if the document belongs to the partition of this process, by the hash of its partitionKey
+     */
+    private boolean isInPartition(DBObject dbObj) {
+        if (partition < 0) {
+            return true;
+        }
+        return (stableHash(dbObj.get(partitionKey)) & Integer.MAX_VALUE) % partitions == partition;
+    }
+
+    /**
+     * @return a hash of the key which is the same in every JVM, as the consumers sharing the partitions may run on different nodes
+     */
+    static int stableHash(Object key) {
+        if (key == null) {
+            return 0;
+        } else if (key instanceof byte[]) {
+            return Arrays.hashCode((byte[]) key);
+        } else if (key instanceof String || key instanceof Number || key instanceof ObjectId || key instanceof Date
+                || key instanceof Boolean || key instanceof UUID) {
+            return key.hashCode();
+        }
+        // documents, arrays and other types may not define a hashCode based on their value: hash their BSON encoding
+        return Arrays.hashCode(new BasicBSONEncoder().encode(new BasicDBObject("k", key)));
+    }
+
+    /**
+     * Tracks a document out of the partition as if it had been processed, so that it does not hold the position back.
+     */
+    private void skip(DBObject dbObj) {
+        if (tailTracking.getIncreasingFieldName() != null) {
+            lastReadVal = dbObj.get(tailTracking.getIncreasingFieldName());
+        }
+        if (queue != null) {
+            // behind the documents still in flight
+            tailTracking.complete(tailTracking.track(dbObj));
+        } else {
+            tailTracking.setLastVal(dbObj);
+        }
+    }
+
+    /**
+     * Processes the exchange of one document or batch, or hands it over to the workers, and tracks the last document it holds.
+     *
+     * @param documents the number of documents the exchange holds, which all count towards persistEveryN
+     * @return false if the consumer stopped before the exchange could be handed over
+     */
+    private boolean dispatch(Exchange exchange, DBObject last, int documents) throws InterruptedException {
+        if (tailTracking.getIncreasingFieldName() != null) {
+            lastReadVal = last.get(tailTracking.getIncreasingFieldName());
+        }
+        if (queue != null) {
+            Pending pending = new Pending(exchange, tailTracking.track(last, documents));
+            // blocks while the workers are behind, which throttles the reads
+            while (!queue.offer(pending, 1, TimeUnit.SECONDS)) {
+                if (!keepRunning) {
+                    // cannot be handed over anymore, its lastVal is not committed so it is read again on restart
+                    return false;
+                }
+            }
+            return true;
+        }
+        try {
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Sending exchange: {}, ObjectId: {}", exchange, last.get("_id"));
+            }
+            consumer.getProcessor().process(exchange);
+        } catch (Exception e) {
+            // do nothing
+        }
+        tailTracking.setLastVal(last, documents);
+        return true;
+    }
+
     // no arguments, will ask DB what the last updated Id was (checking persistent storage)
     private DBCursor initializeCursor() {
-        Object lastVal = tailTracking.lastVal;
+        // resume after the last document read, the ones still being processed must not be read twice
+        Object lastVal = lastReadVal;
         // lastVal can be null if we are initializing and there is no persistence enabled
         DBCursor answer;
         if (lastVal == null) {
@@ -178,6 +377,39 @@ public class MongoDbTailingProcess implements Runnable {
             DBObject queryObj = new BasicDBObject(tailTracking.getIncreasingFieldName(), new BasicDBObject("$gt", lastVal));
             answer = dbCol.find(queryObj).addOption(Bytes.QUERYOPTION_TAILABLE).addOption(Bytes.QUERYOPTION_AWAITDATA);
         }
+        if (endpoint.isRawBson()) {
+            answer.setDecoderFactory(MongoDbRawBsonDecoderFactory.INSTANCE);
+        }
         return answer;
     }
+
+    private final class Worker implements Runnable {
+        @Override
+        public void run() {
+            while (true) {
+                Pending pending;
+                try {
+                    pending = queue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (pending == null) {
+                    if (draining) {
+                        return;
+                    }
+                    continue;
+                }
+                try {
+                    if (LOG.isTraceEnabled()) {
+                        LOG.trace("Sending exchange: {}", pending.exchange);
+                    }
+                    consumer.getProcessor().process(pending.exchange);
+                } catch (Exception e) {
+                    // do nothing, as in the sequential mode
+                }
+                tailTracking.complete(pending.handle);
+            }
+        }
+    }
 }
@@ -0,0 +1,225 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.impl.DefaultConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Consumes a collection as a work queue shared by competing consumers, on any number of threads and nodes.
+ * <p/>
+ * Every document matching the endpoint's query is claimed atomically with findAndModify, which stamps it with the claiming consumer
+ * (owner) and the end of its lease (leaseUntil), so no other consumer picks it up while it is being processed. The lease is renewed
+ * every third of {@link MongoDbEndpoint#getLeaseTime()} for as long as the document is processed. A document processed successfully is
+ * removed; otherwise its failed attempts are counted (attempts) and it is retried once {@link MongoDbEndpoint#getWorkQueueRetryDelay()}
+ * elapsed, until {@link MongoDbEndpoint#getWorkQueueMaxAttempts()} is reached and it is parked (failed) for good. Documents whose
+ * consumer died become available again once their lease expires.
+ * <p/>
+ * Leases are computed from the clock of each consumer, so the clocks of all the nodes sharing a queue must agree to well within the
+ * lease time.
+ */
+public class MongoDbWorkQueueConsumer extends DefaultConsumer {
+
+    public static final String OWNER_FIELD = "owner";
+    public static final String LEASE_UNTIL_FIELD = "leaseUntil";
+    public static final String ATTEMPTS_FIELD = "attempts";
+    public static final String FAILED_FIELD = "failed";
+
+    private static final Logger LOG = LoggerFactory.getLogger(MongoDbWorkQueueConsumer.class);
+    private static final DBObject SORT = new BasicDBObject("_id", 1);
+    // the longest wait between two claims after consecutive failures, in milliseconds
+    private static final long MAX_BACK_OFF = 30000;
+
+    private final MongoDbEndpoint endpoint;
+    private final DBCollection dbCol;
+    private DBObject filter;
+    private ExecutorService executor;
+    private ScheduledExecutorService renewer;
+    private volatile boolean keepRunning;
+
+    public MongoDbWorkQueueConsumer(MongoDbEndpoint endpoint, Processor processor) {
+        super(endpoint, processor);
+        this.endpoint = endpoint;
+        this.dbCol = endpoint.getDbCollection();
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        filter = new BasicDBObject();
+        if (endpoint.getQuery() != null) {
+            MongoDbQueryTemplate template = MongoDbQueryTemplate.parse(endpoint.getQuery());
+            if (!template.getParameters().isEmpty()) {
+                throw new CamelMongoDbException("The query of a workQueue consumer cannot have parameters: " + endpoint.getQuery());
+            }
+            filter = template.bind(null);
+        }
+
+        keepRunning = true;
+        renewer = endpoint.getCamelContext().getExecutorServiceManager()
+                .newSingleThreadScheduledExecutor(this, "MongoDbLeaseRenewer[" + endpoint.getEndpointKey() + "]");
+        int threads = Math.max(1, endpoint.getConcurrentConsumers());
+        executor = endpoint.getCamelContext().getExecutorServiceManager().newFixedThreadPool(this, endpoint.getEndpointUri(), threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(new Worker(endpoint.getCamelContext().getUuidGenerator().generateUuid()));
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        keepRunning = false;
+        if (executor != null) {
+            endpoint.getCamelContext().getExecutorServiceManager().shutdownGraceful(executor);
+            executor = null;
+        }
+        if (renewer != null) {
+            endpoint.getCamelContext().getExecutorServiceManager().shutdownNow(renewer);
+            renewer = null;
+        }
+        super.doStop();
+    }
+
+    /**
+     * @return the next available document, now leased to the owner, or null if there is none
+     */
+    protected DBObject claim(String owner) {
+        Date now = new Date();
+        BasicDBList available = new BasicDBList();
+        available.add(new BasicDBObject(LEASE_UNTIL_FIELD, null));
+        available.add(new BasicDBObject(LEASE_UNTIL_FIELD, new BasicDBObject("$lt", now)));
+        BasicDBList and = new BasicDBList();
+        and.add(filter);
+        and.add(new BasicDBObject("$or", available));
+        and.add(new BasicDBObject(FAILED_FIELD, new BasicDBObject("$exists", false)));
+
+        DBObject lease = new BasicDBObject("$set", new BasicDBObject(OWNER_FIELD, owner)
+                .append(LEASE_UNTIL_FIELD, new Date(now.getTime() + endpoint.getLeaseTime())));
+        return dbCol.findAndModify(new BasicDBObject("$and", and), null, SORT, false, lease, true, false);
+    }
+
+    private final class Worker implements Runnable {
+        private final String owner;
+
+        private Worker(String owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public void run() {
+            long backOff = 0;
+            while (keepRunning && isRunAllowed()) {
+                try {
+                    DBObject document = claim(owner);
+                    backOff = 0;
+                    if (document == null) {
+                        Thread.sleep(endpoint.getWorkQueueIdleDelay());
+                    } else {
+                        process(document);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    getExceptionHandler().handleException("Error claiming a document from " + dbCol.getFullName(), e);
+                    // do not hammer a failing server, wait longer after each consecutive failure
+                    backOff = backOff == 0 ? Math.max(1, endpoint.getWorkQueueIdleDelay()) : Math.min(MAX_BACK_OFF, backOff * 2);
+                    try {
+                        Thread.sleep(backOff);
+                    } catch (InterruptedException e2) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void process(DBObject document) {
+            // only touch the document if the lease is still ours
+            DBObject owned = new BasicDBObject("_id", document.get("_id")).append(OWNER_FIELD, owner);
+            Exchange exchange = endpoint.createConsumedExchange(document);
+            exchange.getIn().setHeader(MongoDbConstants.LEASE_OWNER, owner);
+            long renewalPeriod = Math.max(1, endpoint.getLeaseTime() / 3);
+            ScheduledFuture<?> renewal = renewer.scheduleWithFixedDelay(new LeaseRenewal(owned), renewalPeriod, renewalPeriod,
+                    TimeUnit.MILLISECONDS);
+            try {
+                getProcessor().process(exchange);
+            } catch (Exception e) {
+                exchange.setException(e);
+            } finally {
+                renewal.cancel(false);
+            }
+
+            if (exchange.getException() == null) {
+                dbCol.remove(owned);
+                return;
+            }
+            Object attempts = document.get(ATTEMPTS_FIELD);
+            int attempt = (attempts instanceof Number ? ((Number) attempts).intValue() : 0) + 1;
+            int maxAttempts = endpoint.getWorkQueueMaxAttempts();
+            DBObject update;
+            if (maxAttempts > 0 && attempt >= maxAttempts) {
+                LOG.warn("Parking document {} after {} failed attempts", document.get("_id"), attempt);
+                update = new BasicDBObject("$set", new BasicDBObject(ATTEMPTS_FIELD, attempt).append(FAILED_FIELD, new Date()))
+                        .append("$unset", new BasicDBObject(OWNER_FIELD, "").append(LEASE_UNTIL_FIELD, ""));
+            } else {
+                // keep the document leased until the retry is due, so that a poison document is not claimed again right away
+                LOG.debug("Retrying document {} in {} ms after failed attempt {}", new Object[]{document.get("_id"),
+                    endpoint.getWorkQueueRetryDelay(), attempt});
+                update = new BasicDBObject("$set", new BasicDBObject(ATTEMPTS_FIELD, attempt)
+                        .append(LEASE_UNTIL_FIELD, new Date(System.currentTimeMillis() + endpoint.getWorkQueueRetryDelay())));
+            }
+            dbCol.update(owned, update);
+            getExceptionHandler().handleException("Error processing document " + document.get("_id"), exchange, exchange.getException());
+        }
+    }
+
+    private final class LeaseRenewal implements Runnable {
+        private final DBObject owned;
+
+        private LeaseRenewal(DBObject owned) {
+            this.owned = owned;
+        }
+
+        @Override
+        public void run() {
+            try {
+                WriteResult result = dbCol.update(owned, new BasicDBObject("$set",
+                        new BasicDBObject(LEASE_UNTIL_FIELD, new Date(System.currentTimeMillis() + endpoint.getLeaseTime()))));
+                if (result.getN() == 0) {
+                    LOG.warn("Lost the lease of document {}, which may be processed by another consumer", owned.get("_id"));
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Could not renew the lease of document " + owned.get("_id") + ", will retry", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.mongodb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.nio.charset.Charset;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import org.bson.BasicBSONEncoder;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MongoDbDocumentReaderTest {
+
+    @Test
+    public void testBsonDocumentWhoseLengthIsAFormFeed() throws Exception {
+        byte[] bson = encode(new BasicDBObject("a", 1));
+        assertEquals('\f', bson[0]);
+
+        MongoDbDocumentReader reader = new MongoDbDocumentReader(new ByteArrayInputStream(bson));
+        assertTrue(reader.hasNext());
+        assertEquals(1, reader.next().get("a"));
+        assertEquals(0, reader.getOffset());
+        assertFalse(reader.hasNext());
+        reader.close();
+    }
+
+    @Test
+    public void testConcatenatedBsonDocumentsWhoseLengthIsASpace() throws Exception {
+        byte[] first = encode(new BasicDBObject("s", "0123456789abcdefghi"));
+        byte[] second = encode(new BasicDBObject("s", "jklmnopqrstuvwxyz01"));
+        assertEquals(' ', first[0]);
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(first);
+        stream.write(second);
+        MongoDbDocumentReader reader = new MongoDbDocumentReader(new ByteArrayInputStream(stream.toByteArray()));
+        assertTrue(reader.hasNext());
+        assertEquals("0123456789abcdefghi", reader.next().get("s"));
+        assertTrue(reader.hasNext());
+        assertEquals("jklmnopqrstuvwxyz01", reader.next().get("s"));
+        assertEquals(32, reader.getOffset());
+        assertFalse(reader.hasNext());
+        reader.close();
+    }
+
+    @Test
+    public void testBsonDocumentWhoseLengthIsAnOpeningBrace() throws Exception {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 110; i++) {
+            value.append('x');
+        }
+        byte[] bson = encode(new BasicDBObject("s", value.toString()));
+        assertEquals(123, bson.length);
+        assertEquals('{', bson[0]);
+
+        MongoDbDocumentReader reader = new MongoDbDocumentReader(new ByteArrayInputStream(bson));
+        assertTrue(reader.hasNext());
+        assertEquals(value.toString(), reader.next().get("s"));
+        assertFalse(reader.hasNext());
+        reader.close();
+    }
+
+    @Test
+    public void testJsonAfterLeadingWhitespace() throws Exception {
+        byte[] json = "\n  \n{\"a\": 1}\n\n{\"a\": 2}\n".getBytes(Charset.forName("UTF-8"));
+
+        MongoDbDocumentReader reader = new MongoDbDocumentReader(new ByteArrayInputStream(json));
+        assertTrue(reader.hasNext());
+        DBObject document = reader.next();
+        assertEquals(1, document.get("a"));
+        assertEquals(4, reader.getOffset());
+        assertTrue(reader.hasNext());
+        assertEquals(2, reader.next().get("a"));
+        assertEquals(14, reader.getOffset());
+        assertFalse(reader.hasNext());
+        reader.close();
+    }
+
+    @Test
+    public void testTruncatedBsonDocument() throws Exception {
+        byte[] complete = encode(new BasicDBObject("a", 1));
+        byte[] stream = new byte[complete.length * 2 - 3];
+        System.arraycopy(complete, 0, stream, 0, complete.length);
+        System.arraycopy(complete, 0, stream, complete.length, complete.length - 3);
+
+        MongoDbDocumentReader reader = new MongoDbDocumentReader(new ByteArrayInputStream(stream));
+        assertTrue(reader.hasNext());
+        assertEquals(1, reader.next().get("a"));
+        assertTrue(reader.hasNext());
+        try {
+            reader.next();
+            fail("Should have thrown an EOFException");
+        } catch (EOFException e) {
+            assertEquals(complete.length, reader.getOffset());
+        }
+        reader.close();
+    }
+
+    private static byte[] encode(DBObject document) {
+        return new BasicBSONEncoder().encode(document);
+    }
+}